@@ -0,0 +1,90 @@
+package de.csgis.commons;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Change in the contents of a single file of a {@link JSONContentProvider}.
+ */
+public class JSONContentEvent {
+	/**
+	 * Type of change.
+	 */
+	public enum Type {
+		ADDED, MODIFIED, REMOVED
+	}
+
+	private Type type;
+	private String name;
+	private JSONObject oldContent, newContent;
+	private List<JSONPath> changes;
+
+	/**
+	 * Creates a new event.
+	 * 
+	 * @param type
+	 *            The type of change.
+	 * @param name
+	 *            The file name without the <code>.json</code> extension.
+	 * @param oldContent
+	 *            The previous contents; <code>null</code> for added files.
+	 * @param newContent
+	 *            The new contents; <code>null</code> for removed files.
+	 * @param changes
+	 *            The paths that have changed; empty for added and removed
+	 *            files.
+	 */
+	public JSONContentEvent(Type type, String name, JSONObject oldContent,
+			JSONObject newContent, List<JSONPath> changes) {
+		this.type = type;
+		this.name = name;
+		this.oldContent = oldContent;
+		this.newContent = newContent;
+		this.changes = Collections.unmodifiableList(changes);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the previous contents of the file. It is the same instance the
+	 * provider returned before the change and must not be modified.
+	 * 
+	 * @return The previous contents; <code>null</code> for added files.
+	 */
+	public JSONObject getOldContent() {
+		return oldContent;
+	}
+
+	/**
+	 * Returns the new contents of the file. It is the same instance returned
+	 * by {@link JSONContentProvider#get()} and must not be modified.
+	 * 
+	 * @return The new contents; <code>null</code> for removed files.
+	 */
+	public JSONObject getNewContent() {
+		return newContent;
+	}
+
+	/**
+	 * Returns the paths that have changed for modified files, as computed by
+	 * {@link JSONUtils#diff(JSONObject, JSONObject)}.
+	 * 
+	 * @return The changed paths; empty for added and removed files.
+	 */
+	public List<JSONPath> getChanges() {
+		return changes;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + name + (changes.isEmpty() ? "" : " " + changes);
+	}
+}
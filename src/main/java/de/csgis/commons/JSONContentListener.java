@@ -0,0 +1,17 @@
+package de.csgis.commons;
+
+/**
+ * Listener notified when the contents of a {@link JSONContentProvider} change.
+ */
+public interface JSONContentListener {
+	/**
+	 * Called for each added, modified or removed file.
+	 * 
+	 * The event contents are shared with the provider and the other
+	 * listeners; they must not be modified.
+	 * 
+	 * @param event
+	 *            The change.
+	 */
+	void contentChanged(JSONContentEvent event);
+}
@@ -4,10 +4,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
@@ -15,6 +23,9 @@ import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
+import de.csgis.commons.json.JSONParser;
+import de.csgis.commons.json.StreamingJSONParser;
+
 /**
  * Class for providing the contents of all <code>.json</code> files in a
  * directory. It only reads each file when necessary (it has not been read yet
@@ -25,11 +36,25 @@ import org.apache.log4j.Logger;
 public class JSONContentProvider {
 	private static final Logger logger = Logger
 			.getLogger(JSONContentProvider.class);
+	private static final Object MISSING = new Object();
+	private static final long DEFAULT_CHECK_INTERVAL = 1000;
+	private static final long LISTENER_THREAD_KEEP_ALIVE = 60;
 
 	private File directory;
+	private JSONParser parser;
 	private Map<String, JSONObject> contents;
 	private Map<String, Long> lastFileAccesses = new HashMap<String, Long>();
 
+	// Resolved paths for the current contents of each file
+	private Map<String, Map<JSONPath, Object>> pathCache;
+	private long checkInterval = TimeUnit.MILLISECONDS
+			.toNanos(DEFAULT_CHECK_INTERVAL);
+	private long lastCheck;
+	private boolean checked;
+
+	private List<JSONContentListener> listeners;
+	private Executor listenerExecutor;
+
 	/**
 	 * Creates a new JSON content provider.
 	 * 
@@ -37,9 +62,24 @@ public class JSONContentProvider {
 	 *            Path to the directory containing the <code>.json</code> files.
 	 */
 	public JSONContentProvider(String directory) {
+		this(directory, new StreamingJSONParser());
+	}
+
+	/**
+	 * Creates a new JSON content provider.
+	 * 
+	 * @param directory
+	 *            Path to the directory containing the <code>.json</code> files.
+	 * @param parser
+	 *            The parser to use for reading the files.
+	 */
+	public JSONContentProvider(String directory, JSONParser parser) {
 		this.directory = new File(directory);
+		this.parser = parser;
 		this.contents = new HashMap<String, JSONObject>();
 		this.lastFileAccesses = new HashMap<String, Long>();
+		this.pathCache = new HashMap<String, Map<JSONPath, Object>>();
+		this.listeners = new CopyOnWriteArrayList<JSONContentListener>();
 	}
 
 	/**
@@ -53,7 +93,162 @@ public class JSONContentProvider {
 		return contents;
 	}
 
+	/**
+	 * Gets a single value from the contents of a file. Resolved values are
+	 * cached until the contents change, so repeated lookups do not navigate
+	 * the JSON object again.
+	 * 
+	 * Unlike {@link #get()}, it does not check the directory on every call,
+	 * but at most once per check interval (see {@link #setCheckInterval(long)}
+	 * ).
+	 * 
+	 * @param name
+	 *            The file name without the <code>.json</code> extension.
+	 * @param path
+	 *            The path to the value inside the file contents.
+	 * @return The value or <code>null</code> if the file or the path do not
+	 *         exist.
+	 */
+	public Object get(String name, JSONPath path) {
+		if (!this.checked
+				|| System.nanoTime() - this.lastCheck >= this.checkInterval) {
+			updateContentsIfNeeded();
+		}
+
+		Map<JSONPath, Object> cache = this.pathCache.get(name);
+		if (cache == null) {
+			if (!this.contents.containsKey(name)) {
+				return null;
+			}
+			cache = new HashMap<JSONPath, Object>();
+			this.pathCache.put(name, cache);
+		}
+
+		Object value = cache.get(path);
+		if (value == null) {
+			JSONObject content = this.contents.get(name);
+			value = content != null ? path.resolve(content) : null;
+			if (value == null) {
+				value = MISSING;
+			}
+			cache.put(path, value);
+		}
+		return value != MISSING ? value : null;
+	}
+
+	/**
+	 * Sets the minimum time between two checks of the directory made by
+	 * {@link #get(String, JSONPath)}. {@link #get()} and {@link #refresh()}
+	 * always check it. By default it is one second.
+	 * 
+	 * @param millis
+	 *            The interval in milliseconds. Use 0 to check the directory on
+	 *            every lookup.
+	 */
+	public void setCheckInterval(long millis) {
+		this.checkInterval = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Checks the directory and notifies the listeners about the changes, if
+	 * any. Contents are also checked when calling {@link #get()} or
+	 * {@link #get(String, JSONPath)}.
+	 */
+	public void refresh() {
+		updateContentsIfNeeded();
+	}
+
+	/**
+	 * Adds a listener to be notified when a file is added, modified or
+	 * removed. Changes are detected when the contents are checked (see
+	 * {@link #refresh()}).
+	 * 
+	 * Events contain the same {@link JSONObject} instances returned by
+	 * {@link #get()}, not copies, so listeners must not modify them.
+	 * 
+	 * @param listener
+	 *            The listener to add.
+	 */
+	public void addListener(JSONContentListener listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener previously added with
+	 * {@link #addListener(JSONContentListener)}.
+	 * 
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public void removeListener(JSONContentListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Sets the executor used to notify the listeners. By default, listeners
+	 * are notified on a single background thread, in the same order as the
+	 * changes are detected. The thread ends after one minute without changes.
+	 * 
+	 * @param executor
+	 *            The executor to use. Events are only guaranteed to be
+	 *            delivered in order if it runs the tasks sequentially.
+	 */
+	public void setListenerExecutor(Executor executor) {
+		this.listenerExecutor = executor;
+	}
+
 	private void updateContentsIfNeeded() {
+		this.checked = true;
+		this.lastCheck = System.nanoTime();
+		// Do not compute the changes if nobody is listening
+		List<JSONContentEvent> events = this.listeners.isEmpty() ? null
+				: new ArrayList<JSONContentEvent>();
+		updateContentsIfNeeded(events);
+		if (events != null && !events.isEmpty()) {
+			fire(events);
+		}
+	}
+
+	private void fire(final List<JSONContentEvent> events) {
+		if (this.listeners.isEmpty()) {
+			return;
+		}
+		if (this.listenerExecutor == null) {
+			// The thread ends when idle, so providers that are no longer used
+			// do not keep it alive
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+					LISTENER_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r,
+									"json-content-listeners");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			this.listenerExecutor = executor;
+		}
+
+		for (final JSONContentListener listener : this.listeners) {
+			this.listenerExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (JSONContentEvent event : events) {
+						try {
+							listener.contentChanged(event);
+						} catch (RuntimeException e) {
+							logger.error("Error notifying JSON content "
+									+ "change: " + event, e);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	private void updateContentsIfNeeded(List<JSONContentEvent> events) {
 		File[] files = this.directory.listFiles(new FilenameFilter() {
 			@Override
 			public boolean accept(File dir, String name) {
@@ -62,7 +257,13 @@ public class JSONContentProvider {
 		});
 
 		if (files == null) {
+			if (events != null) {
+				for (String name : this.contents.keySet()) {
+					events.add(removed(name, this.contents.get(name)));
+				}
+			}
 			this.contents.clear();
+			this.pathCache.clear();
 			return;
 		}
 
@@ -75,7 +276,11 @@ public class JSONContentProvider {
 		}
 
 		for (String path : toRemove) {
-			this.contents.remove(path);
+			JSONObject old = this.contents.remove(path);
+			this.pathCache.remove(path);
+			if (events != null) {
+				events.add(removed(path, old));
+			}
 		}
 
 		for (File file : files) {
@@ -89,20 +294,55 @@ public class JSONContentProvider {
 				continue;
 			}
 
+			this.pathCache.remove(basename);
+			Reader reader = null;
 			try {
-				String content = IOUtils.toString(new FileInputStream(file));
-				this.contents.put(basename, JSONObject.fromObject(content));
+				reader = new InputStreamReader(new FileInputStream(file));
+				JSONObject newContent = this.parser.parse(reader);
+				this.contents.put(basename, newContent);
 				this.lastFileAccesses.put(basename,
 						new Long(System.currentTimeMillis()));
+				if (events != null) {
+					addEvent(events, basename, jsonContent, newContent);
+				}
 			} catch (JSONException e) {
 				logger.error("Cannot read JSON plugin "
 						+ "config from config dir", e);
-				this.contents.remove(basename);
+				removeInvalid(basename, events);
 			} catch (IOException e) {
 				logger.error("Cannot read JSON plugin "
 						+ "config from config dir", e);
-				this.contents.remove(basename);
+				removeInvalid(basename, events);
+			} finally {
+				IOUtils.closeQuietly(reader);
 			}
 		}
 	}
+
+	private void addEvent(List<JSONContentEvent> events, String name,
+			JSONObject oldContent, JSONObject newContent) {
+		if (oldContent == null) {
+			events.add(new JSONContentEvent(JSONContentEvent.Type.ADDED, name,
+					null, newContent, new ArrayList<JSONPath>()));
+		} else {
+			List<JSONPath> changes = JSONUtils.diff(oldContent, newContent);
+			if (!changes.isEmpty()) {
+				events.add(new JSONContentEvent(
+						JSONContentEvent.Type.MODIFIED, name, oldContent,
+						newContent, changes));
+			}
+		}
+	}
+
+	private void removeInvalid(String name, List<JSONContentEvent> events) {
+		JSONObject old = this.contents.remove(name);
+		if (old != null && events != null) {
+			events.add(removed(name, old));
+		}
+	}
+
+	private JSONContentEvent removed(String name, JSONObject old) {
+		return new JSONContentEvent(JSONContentEvent.Type.REMOVED, name, old,
+				null, new ArrayList<JSONPath>());
+	}
 }
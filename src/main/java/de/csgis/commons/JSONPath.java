@@ -0,0 +1,164 @@
+package de.csgis.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * A compiled path to a value inside a JSON object. Paths are parsed once with
+ * {@link #compile(String)} and can then be resolved against any number of
+ * objects without parsing them again.
+ * 
+ * Two syntaxes are supported:
+ * <ul>
+ * <li>Dotted paths with array indices: <code>map.layers[3].url</code>.</li>
+ * <li>JSON pointers (RFC 6901): <code>/map/layers/3/url</code>.</li>
+ * </ul>
+ */
+public final class JSONPath {
+	private String expression;
+
+	// For each segment, the key (null if it can only be an index) and the
+	// index (-1 if it can only be a key)
+	private String[] keys;
+	private int[] indices;
+
+	private JSONPath(String expression, List<String> keys,
+			List<Integer> indices) {
+		this.expression = expression;
+		this.keys = keys.toArray(new String[keys.size()]);
+		this.indices = new int[indices.size()];
+		for (int i = 0; i < this.indices.length; i++) {
+			this.indices[i] = indices.get(i);
+		}
+	}
+
+	/**
+	 * Compiles the given path.
+	 * 
+	 * @param expression
+	 *            The path, either dotted (<code>a.b[0].c</code>) or a JSON
+	 *            pointer (<code>/a/b/0/c</code>). An empty string refers to
+	 *            the whole object.
+	 * @return The compiled path.
+	 * @throws IllegalArgumentException
+	 *             if the path is not valid.
+	 */
+	public static JSONPath compile(String expression) {
+		List<String> keys = new ArrayList<String>();
+		List<Integer> indices = new ArrayList<Integer>();
+		if (expression.startsWith("/")) {
+			for (String segment : expression.substring(1).split("/", -1)) {
+				String key = segment.replace("~1", "/").replace("~0", "~");
+				keys.add(key);
+				indices.add(parseIndex(key));
+			}
+		} else if (!expression.isEmpty()) {
+			compileDotted(expression, keys, indices);
+		}
+		return new JSONPath(expression, keys, indices);
+	}
+
+	private static void compileDotted(String expression, List<String> keys,
+			List<Integer> indices) {
+		int i = 0;
+		int length = expression.length();
+		while (i < length) {
+			char c = expression.charAt(i);
+			if (c == '[') {
+				int end = expression.indexOf(']', i);
+				if (end < 0) {
+					throw invalid(expression);
+				}
+				int index = parseIndex(expression.substring(i + 1, end));
+				if (index < 0) {
+					throw invalid(expression);
+				}
+				keys.add(null);
+				indices.add(index);
+				i = end + 1;
+			} else {
+				int end = i;
+				while (end < length && expression.charAt(end) != '.'
+						&& expression.charAt(end) != '[') {
+					end++;
+				}
+				if (end == i) {
+					throw invalid(expression);
+				}
+				keys.add(expression.substring(i, end));
+				indices.add(-1);
+				i = end;
+			}
+
+			if (i < length && expression.charAt(i) == '.') {
+				i++;
+				if (i == length) {
+					throw invalid(expression);
+				}
+			}
+		}
+	}
+
+	private static int parseIndex(String segment) {
+		if (segment.isEmpty() || segment.length() > 9
+				|| (segment.length() > 1 && segment.charAt(0) == '0')) {
+			return -1;
+		}
+		for (int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+		}
+		return Integer.parseInt(segment);
+	}
+
+	private static IllegalArgumentException invalid(String expression) {
+		return new IllegalArgumentException("Invalid JSON path: " + expression);
+	}
+
+	/**
+	 * Resolves the path against the given object.
+	 * 
+	 * @param obj
+	 *            The object to navigate.
+	 * @return The value at the path or <code>null</code> if any segment of
+	 *         the path does not exist. JSON <code>null</code> values are
+	 *         returned as {@link net.sf.json.JSONNull}.
+	 */
+	public Object resolve(JSONObject obj) {
+		Object current = obj;
+		for (int i = 0; i < this.keys.length && current != null; i++) {
+			if (current instanceof JSONObject && this.keys[i] != null) {
+				JSONObject o = (JSONObject) current;
+				current = o.isNullObject() ? null : o.opt(this.keys[i]);
+			} else if (current instanceof JSONArray && this.indices[i] >= 0) {
+				JSONArray array = (JSONArray) current;
+				current = this.indices[i] < array.size() ? array
+						.get(this.indices[i]) : null;
+			} else {
+				current = null;
+			}
+		}
+		return current;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof JSONPath
+				&& ((JSONPath) obj).expression.equals(this.expression);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.expression.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return this.expression;
+	}
+}
@@ -1,5 +1,10 @@
 package de.csgis.commons;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 /**
@@ -23,8 +28,10 @@ public class JSONUtils {
 	 */
 	public static JSONObject merge(JSONObject defaultObj, JSONObject overrides) {
 		// We create a copy of the default object
-		JSONObject ret = JSONObject.fromObject(defaultObj != null
-				&& !defaultObj.isNullObject() ? defaultObj.toString() : "{}");
+		JSONObject ret = new JSONObject();
+		if (defaultObj != null && !defaultObj.isNullObject()) {
+			copy(defaultObj, ret);
+		}
 
 		if (overrides != null && !overrides.isEmpty()
 				&& !overrides.isNullObject()) {
@@ -33,6 +40,82 @@ public class JSONUtils {
 		return ret;
 	}
 
+	/**
+	 * Sets a value in the given object. Unlike
+	 * {@link JSONObject#element(String, Object)}, strings that look like JSON
+	 * are kept as strings, also inside the given objects and arrays.
+	 * 
+	 * @param obj
+	 *            The object to modify.
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value. Objects and arrays are copied.
+	 */
+	public static void element(JSONObject obj, String key, Object value) {
+		// Nested containers are added empty and filled afterwards, since
+		// json-lib copies them on insertion
+		if (isContainer(value)) {
+			obj.element(key, empty(value));
+			copy(value, obj.get(key));
+		} else {
+			obj.element(key, leaf(value));
+		}
+	}
+
+	/**
+	 * Copies the values of the given object into the target object, without
+	 * serializing and parsing them again.
+	 */
+	private static void copy(JSONObject source, JSONObject target) {
+		for (Object entry : source.entrySet()) {
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) entry;
+			element(target, e.getKey().toString(), e.getValue());
+		}
+	}
+
+	private static void copy(JSONArray source, JSONArray target) {
+		for (Object value : source) {
+			if (isContainer(value)) {
+				target.element(empty(value));
+				copy(value, target.get(target.size() - 1));
+			} else {
+				target.element(leaf(value));
+			}
+		}
+	}
+
+	private static void copy(Object source, Object target) {
+		if (source instanceof JSONObject) {
+			copy((JSONObject) source, (JSONObject) target);
+		} else {
+			copy((JSONArray) source, (JSONArray) target);
+		}
+	}
+
+	private static boolean isContainer(Object value) {
+		return value instanceof JSONArray
+				|| (value instanceof JSONObject && !((JSONObject) value)
+						.isNullObject());
+	}
+
+	private static Object empty(Object container) {
+		return container instanceof JSONArray ? new JSONArray()
+				: new JSONObject();
+	}
+
+	/**
+	 * Quotes the strings json-lib would parse, so they are stored as they are.
+	 */
+	private static Object leaf(Object value) {
+		if (value instanceof String
+				&& net.sf.json.util.JSONUtils.mayBeJSON((String) value)) {
+			return net.sf.json.util.JSONUtils.DOUBLE_QUOTE + value
+					+ net.sf.json.util.JSONUtils.DOUBLE_QUOTE;
+		}
+		return value;
+	}
+
 	private static void mergeRecursive(JSONObject obj, JSONObject overrides) {
 		for (Object key : obj.keySet()) {
 			if (overrides.containsKey(key)) {
@@ -43,18 +126,81 @@ public class JSONUtils {
 					if (overrideElement instanceof JSONObject) {
 						mergeRecursive(defaultObj, (JSONObject) overrideElement);
 					} else {
-						obj.put(key, overrideElement);
+						element(obj, key.toString(), overrideElement);
 					}
 				} else {
-					obj.put(key, overrideElement);
+					element(obj, key.toString(), overrideElement);
 				}
 			}
 		}
 
 		for (Object key : overrides.keySet()) {
 			if (!obj.containsKey(key)) {
-				obj.put(key, overrides.get(key));
+				element(obj, key.toString(), overrides.get(key));
+			}
+		}
+	}
+
+	/**
+	 * Computes the differences between two JSON objects.
+	 * 
+	 * @param oldObj
+	 *            The original object.
+	 * @param newObj
+	 *            The modified object.
+	 * @return The paths (as JSON pointers) of the values that have been added,
+	 *         removed or changed. Arrays with different sizes are reported as a
+	 *         single change. Empty if both objects are equal.
+	 */
+	public static List<JSONPath> diff(JSONObject oldObj, JSONObject newObj) {
+		List<String> paths = new ArrayList<String>();
+		diffRecursive("", oldObj, newObj, paths);
+
+		List<JSONPath> ret = new ArrayList<JSONPath>(paths.size());
+		for (String path : paths) {
+			ret.add(JSONPath.compile(path));
+		}
+		return ret;
+	}
+
+	private static void diffRecursive(String path, Object oldValue,
+			Object newValue, List<String> paths) {
+		if (oldValue instanceof JSONObject && newValue instanceof JSONObject
+				&& !((JSONObject) oldValue).isNullObject()
+				&& !((JSONObject) newValue).isNullObject()) {
+			JSONObject oldObj = (JSONObject) oldValue;
+			JSONObject newObj = (JSONObject) newValue;
+			for (Object key : oldObj.keySet()) {
+				String child = path + "/" + escape(key.toString());
+				if (newObj.containsKey(key)) {
+					diffRecursive(child, oldObj.get(key), newObj.get(key),
+							paths);
+				} else {
+					paths.add(child);
+				}
+			}
+			for (Object key : newObj.keySet()) {
+				if (!oldObj.containsKey(key)) {
+					paths.add(path + "/" + escape(key.toString()));
+				}
 			}
+		} else if (oldValue instanceof JSONArray
+				&& newValue instanceof JSONArray
+				&& ((JSONArray) oldValue).size() == ((JSONArray) newValue)
+						.size()) {
+			JSONArray oldArray = (JSONArray) oldValue;
+			JSONArray newArray = (JSONArray) newValue;
+			for (int i = 0; i < oldArray.size(); i++) {
+				diffRecursive(path + "/" + i, oldArray.get(i),
+						newArray.get(i), paths);
+			}
+		} else if (oldValue == null ? newValue != null : !oldValue
+				.equals(newValue)) {
+			paths.add(path);
 		}
 	}
+
+	private static String escape(String key) {
+		return key.replace("~", "~0").replace("/", "~1");
+	}
 }
@@ -0,0 +1,602 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * In-memory index of the features in a table, to detect changes and run
+ * bounding box queries without reading from the database.
+ *
+ * <p>
+ * For each feature it keeps its id, a 64-bit hash of its properties and
+ * geometry, and the envelope of its geometry. They are stored in flat arrays
+ * (one slot per feature) instead of one object per feature. Integral ids are
+ * stored in a <code>long[]</code>; an object array is only created for other
+ * id types.
+ * </p>
+ *
+ * <p>
+ * Bounding box queries use an {@link STRtree} built on demand from those
+ * arrays. The slots changed after building it are checked linearly, until
+ * there are too many of them and the tree is built again.
+ * </p>
+ *
+ * <p>
+ * Ids are taken from the <code>idColumn</code> property, as in
+ * {@link GeojsonPGHelper}. Integral numeric ids are compared by value,
+ * regardless of their type. Instances are thread-safe.
+ * </p>
+ *
+ * @see GeojsonPGHelper#setIndex(GeojsonFeatureIndex)
+ */
+public class GeojsonFeatureIndex {
+	private static final String GEOJSON_PROPS = "properties";
+	private static final String GEOJSON_GEOM = "geometry";
+	private static final String GEOJSON_FEATURES = "features";
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+	private static final int MIN_DIRTY_SLOTS = 64;
+	private static final int DIRTY_SLOTS_RATIO = 16;
+
+	private String idColumn;
+
+	// Slots. A slot has an integral id if objectIds is null or has no value
+	// for it
+	private int size;
+	private long[] longIds;
+	private Object[] objectIds;
+	private long[] hashes;
+	private double[] envelopes;
+
+	// Open addressing (linear probing) table from id to slot + 1; 0 is empty
+	private int[] table;
+
+	// Built on demand. The tree entries of the dirty slots (written after
+	// building it) are ignored and those slots are checked linearly instead
+	private STRtree tree;
+	private BitSet dirty = new BitSet();
+	private int[] dirtySlots = new int[MIN_DIRTY_SLOTS];
+	private int dirtyCount;
+
+	/**
+	 * Creates a new empty index.
+	 *
+	 * @param idColumn
+	 *            The name of the id property.
+	 */
+	public GeojsonFeatureIndex(String idColumn) {
+		this.idColumn = idColumn;
+		clear();
+	}
+
+	/**
+	 * Removes all the features from the index.
+	 */
+	public synchronized void clear() {
+		this.size = 0;
+		this.longIds = new long[INITIAL_CAPACITY];
+		this.objectIds = null;
+		this.hashes = new long[INITIAL_CAPACITY];
+		this.envelopes = new double[INITIAL_CAPACITY * 4];
+		this.table = new int[INITIAL_CAPACITY * 2];
+		dropTree();
+	}
+
+	/**
+	 * Replaces the contents of the index with the features read from the
+	 * given reader. Features are read one by one, so the whole snapshot is
+	 * never kept in memory. The reader is not closed.
+	 *
+	 * @param reader
+	 *            A reader providing a GeoJSON <code>FeatureCollection</code> or
+	 *            an array of GeoJSON features.
+	 * @throws IOException
+	 *             if the reader cannot be read.
+	 * @throws JSONException
+	 *             if the snapshot is not valid or a feature has no id. The
+	 *             index contains the features read before the error.
+	 */
+	public synchronized void load(Reader reader) throws IOException,
+			JSONException {
+		clear();
+		new StreamingJSONParser().parse(reader, new SnapshotHandler());
+	}
+
+	/**
+	 * Adds the given feature to the index or replaces the existing one with
+	 * the same id. This is the same as calling {@link #hasChanged(JSONObject)}
+	 * and then adding the feature if it has changed, but the id and the hash
+	 * of the feature are computed only once.
+	 *
+	 * @param feature
+	 *            The GeoJSON feature.
+	 * @return <code>true</code> if the feature has been added or has changed,
+	 *         <code>false</code> if it was already in the index with the same
+	 *         contents.
+	 * @throws IOException
+	 *             if the feature does not have an id.
+	 */
+	public synchronized boolean put(JSONObject feature) throws IOException {
+		Object id = id(feature);
+		if (id == null) {
+			throw new IOException("GeoJSON missing id('" + this.idColumn
+					+ "') property");
+		}
+
+		long hash = hash(feature);
+		int slot = find(id);
+		if (slot >= 0 && this.hashes[slot] == hash) {
+			return false;
+		}
+
+		if (slot < 0) {
+			slot = this.size++;
+			ensureCapacity();
+			if (isIntegral(id)) {
+				this.longIds[slot] = ((Number) id).longValue();
+			} else {
+				if (this.objectIds == null) {
+					this.objectIds = new Object[this.longIds.length];
+				}
+				this.objectIds[slot] = id;
+			}
+			insert(slot);
+		}
+		this.hashes[slot] = hash;
+		envelope(feature, this.envelopes, slot * 4);
+		markDirty(slot);
+		return true;
+	}
+
+	/**
+	 * Checks whether the given feature is different from the one in the index.
+	 *
+	 * @param feature
+	 *            The GeoJSON feature.
+	 * @return <code>true</code> if the feature has no id, is not in the index
+	 *         or its properties or geometry are different.
+	 */
+	public synchronized boolean hasChanged(JSONObject feature) {
+		Object id = id(feature);
+		if (id == null) {
+			return true;
+		}
+		int slot = find(id);
+		return slot < 0 || this.hashes[slot] != hash(feature);
+	}
+
+	/**
+	 * Removes the feature with the given id from the index.
+	 *
+	 * @param id
+	 *            The id of the feature.
+	 * @return <code>true</code> if the feature was in the index.
+	 */
+	public synchronized boolean remove(Object id) {
+		int slot = find(id);
+		if (slot < 0) {
+			return false;
+		}
+
+		delete(tableIndex(slot));
+		int last = --this.size;
+		if (slot != last) {
+			// Move the last slot to the removed one
+			int entry = tableIndex(last);
+			this.longIds[slot] = this.longIds[last];
+			if (this.objectIds != null) {
+				this.objectIds[slot] = this.objectIds[last];
+			}
+			this.hashes[slot] = this.hashes[last];
+			System.arraycopy(this.envelopes, last * 4, this.envelopes,
+					slot * 4, 4);
+			this.table[entry] = slot + 1;
+			markDirty(slot);
+		}
+		if (this.objectIds != null) {
+			this.objectIds[last] = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the index contains a feature with the given id.
+	 *
+	 * @param id
+	 *            The id of the feature.
+	 * @return <code>true</code> if the feature is in the index.
+	 */
+	public synchronized boolean contains(Object id) {
+		return find(id) >= 0;
+	}
+
+	/**
+	 * @return The number of features in the index.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the ids of the features whose geometry envelope intersects the
+	 * given bounding box.
+	 *
+	 * @param bbox
+	 *            The bounding box.
+	 * @return The ids of the features, in no particular order.
+	 */
+	public synchronized List<Object> query(Envelope bbox) {
+		if (this.tree == null) {
+			buildTree();
+		}
+
+		List<?> slots = this.tree.query(bbox);
+		List<Object> ret = new ArrayList<Object>(slots.size());
+		for (Object item : slots) {
+			int slot = (Integer) item;
+			if (slot < this.size && !this.dirty.get(slot)) {
+				ret.add(idAt(slot));
+			}
+		}
+		for (int i = 0; i < this.dirtyCount; i++) {
+			int slot = this.dirtySlots[i];
+			if (slot < this.size && intersects(slot, bbox)) {
+				ret.add(idAt(slot));
+			}
+		}
+		return ret;
+	}
+
+	private void buildTree() {
+		this.tree = new STRtree();
+		for (int i = 0; i < this.size; i++) {
+			int j = i * 4;
+			if (!Double.isNaN(this.envelopes[j])) {
+				this.tree.insert(new Envelope(this.envelopes[j],
+						this.envelopes[j + 2], this.envelopes[j + 1],
+						this.envelopes[j + 3]), Integer.valueOf(i));
+			}
+		}
+		this.tree.build();
+		this.dirty.clear();
+		this.dirtyCount = 0;
+	}
+
+	private void dropTree() {
+		this.tree = null;
+		this.dirty.clear();
+		this.dirtyCount = 0;
+	}
+
+	private void markDirty(int slot) {
+		if (this.tree == null || this.dirty.get(slot)) {
+			return;
+		}
+		if (this.dirtyCount >= Math.max(MIN_DIRTY_SLOTS, this.size
+				/ DIRTY_SLOTS_RATIO)) {
+			// Cheaper to build it again on the next query
+			dropTree();
+			return;
+		}
+
+		this.dirty.set(slot);
+		if (this.dirtyCount == this.dirtySlots.length) {
+			this.dirtySlots = Arrays.copyOf(this.dirtySlots,
+					this.dirtyCount * 2);
+		}
+		this.dirtySlots[this.dirtyCount++] = slot;
+	}
+
+	private boolean intersects(int slot, Envelope bbox) {
+		int j = slot * 4;
+		// False for NaN (no geometry)
+		return this.envelopes[j] <= bbox.getMaxX()
+				&& this.envelopes[j + 2] >= bbox.getMinX()
+				&& this.envelopes[j + 1] <= bbox.getMaxY()
+				&& this.envelopes[j + 3] >= bbox.getMinY();
+	}
+
+	private Object id(JSONObject feature) {
+		JSONObject properties = feature.optJSONObject(GEOJSON_PROPS);
+		return properties != null ? properties.opt(this.idColumn) : null;
+	}
+
+	private Object idAt(int slot) {
+		Object id = this.objectIds != null ? this.objectIds[slot] : null;
+		return id != null ? id : Long.valueOf(this.longIds[slot]);
+	}
+
+	private static boolean isIntegral(Object id) {
+		return id instanceof Integer || id instanceof Long
+				|| id instanceof Short || id instanceof Byte
+				|| (id instanceof BigInteger && ((BigInteger) id).bitLength() < 64);
+	}
+
+	private void ensureCapacity() {
+		if (this.size > this.longIds.length) {
+			int capacity = this.longIds.length * 2;
+			this.longIds = Arrays.copyOf(this.longIds, capacity);
+			if (this.objectIds != null) {
+				this.objectIds = Arrays.copyOf(this.objectIds, capacity);
+			}
+			this.hashes = Arrays.copyOf(this.hashes, capacity);
+			this.envelopes = Arrays.copyOf(this.envelopes, capacity * 4);
+
+			// Keep the table at most half full
+			this.table = new int[capacity * 2];
+			for (int i = 0; i < this.size - 1; i++) {
+				insert(i);
+			}
+		}
+	}
+
+	private int home(int hash) {
+		int h = hash * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & (this.table.length - 1);
+	}
+
+	private int home(long id) {
+		return home((int) (id ^ (id >>> 32)));
+	}
+
+	/**
+	 * Returns the home position in the table of the id in the given slot.
+	 */
+	private int homeOf(int slot) {
+		Object id = this.objectIds != null ? this.objectIds[slot] : null;
+		return id != null ? home(id.hashCode()) : home(this.longIds[slot]);
+	}
+
+	private int find(Object id) {
+		if (id == null) {
+			return -1;
+		}
+
+		boolean integral = isIntegral(id);
+		long value = integral ? ((Number) id).longValue() : 0;
+		int mask = this.table.length - 1;
+		int i = integral ? home(value) : home(id.hashCode());
+		for (;; i = (i + 1) & mask) {
+			int entry = this.table[i];
+			if (entry == 0) {
+				return -1;
+			}
+			int slot = entry - 1;
+			Object other = this.objectIds != null ? this.objectIds[slot] : null;
+			if (integral ? other == null && this.longIds[slot] == value : id
+					.equals(other)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position in the table of the given slot.
+	 */
+	private int tableIndex(int slot) {
+		int mask = this.table.length - 1;
+		int i = homeOf(slot);
+		while (this.table[i] != slot + 1) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void insert(int slot) {
+		int mask = this.table.length - 1;
+		int i = homeOf(slot);
+		while (this.table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		this.table[i] = slot + 1;
+	}
+
+	private void delete(int i) {
+		int mask = this.table.length - 1;
+		this.table[i] = 0;
+
+		// Shift back the following entries so lookups do not stop at the gap
+		for (int j = (i + 1) & mask; this.table[j] != 0; j = (j + 1) & mask) {
+			int k = homeOf(this.table[j] - 1);
+			boolean movable = i <= j ? (k <= i || k > j) : (k <= i && k > j);
+			if (movable) {
+				this.table[i] = this.table[j];
+				this.table[j] = 0;
+				i = j;
+			}
+		}
+	}
+
+	private static long hash(JSONObject feature) {
+		return mix(hash(feature.opt(GEOJSON_PROPS)) * 31
+				+ hash(feature.opt(GEOJSON_GEOM)));
+	}
+
+	private static long hash(Object value) {
+		if (value instanceof JSONObject) {
+			JSONObject obj = (JSONObject) value;
+			if (obj.isNullObject()) {
+				return NULL_HASH;
+			}
+			// Independent of the order of the keys
+			long h = 1;
+			for (Object key : obj.keySet()) {
+				h += mix(hash(key) ^ hash(obj.get(key)) * 31);
+			}
+			return mix(h);
+		} else if (value instanceof JSONArray) {
+			long h = 2;
+			for (Object element : (JSONArray) value) {
+				h = h * 31 + hash(element);
+			}
+			return mix(h);
+		} else if (value instanceof Number) {
+			return mix(Double.doubleToLongBits(((Number) value).doubleValue()));
+		} else if (value instanceof String) {
+			String s = (String) value;
+			long h = 3;
+			for (int i = 0; i < s.length(); i++) {
+				h = h * 31 + s.charAt(i);
+			}
+			return mix(h);
+		} else if (value instanceof Boolean) {
+			return (Boolean) value ? 4 : 5;
+		}
+		// null and JSONNull
+		return NULL_HASH;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Computes the envelope (minx, miny, maxx, maxy) of the feature geometry
+	 * into the given array. All values are NaN if it has no coordinates.
+	 */
+	private static void envelope(JSONObject feature, double[] env, int offset) {
+		env[offset] = env[offset + 1] = Double.POSITIVE_INFINITY;
+		env[offset + 2] = env[offset + 3] = Double.NEGATIVE_INFINITY;
+		Object geometry = feature.opt(GEOJSON_GEOM);
+		if (geometry instanceof JSONObject) {
+			expand((JSONObject) geometry, env, offset);
+		}
+		if (env[offset] > env[offset + 2]) {
+			Arrays.fill(env, offset, offset + 4, Double.NaN);
+		}
+	}
+
+	private static void expand(JSONObject geometry, double[] env, int offset) {
+		Object geometries = geometry.opt("geometries");
+		if (geometries instanceof JSONArray) {
+			for (Object child : (JSONArray) geometries) {
+				if (child instanceof JSONObject) {
+					expand((JSONObject) child, env, offset);
+				}
+			}
+		}
+		expand(geometry.opt("coordinates"), env, offset);
+	}
+
+	private static void expand(Object coordinates, double[] env, int offset) {
+		if (!(coordinates instanceof JSONArray)) {
+			return;
+		}
+
+		JSONArray array = (JSONArray) coordinates;
+		if (array.size() >= 2 && array.get(0) instanceof Number
+				&& array.get(1) instanceof Number) {
+			double x = ((Number) array.get(0)).doubleValue();
+			double y = ((Number) array.get(1)).doubleValue();
+			env[offset] = Math.min(env[offset], x);
+			env[offset + 1] = Math.min(env[offset + 1], y);
+			env[offset + 2] = Math.max(env[offset + 2], x);
+			env[offset + 3] = Math.max(env[offset + 3], y);
+		} else {
+			for (Object child : array) {
+				expand(child, env, offset);
+			}
+		}
+	}
+
+	/**
+	 * Builds the features of a snapshot one by one and adds them to the index.
+	 */
+	private class SnapshotHandler implements JSONHandler {
+		private int depth, featuresDepth = -1;
+		private String key;
+		private JSONObjectBuilder feature;
+
+		@Override
+		public void startObject() {
+			if (this.feature == null && this.depth == this.featuresDepth) {
+				this.feature = new JSONObjectBuilder();
+			}
+			if (this.feature != null) {
+				this.feature.startObject();
+			} else {
+				this.depth++;
+			}
+		}
+
+		@Override
+		public void endObject() {
+			if (this.feature != null) {
+				this.feature.endObject();
+				addIfDone();
+			} else {
+				this.depth--;
+			}
+		}
+
+		@Override
+		public void startArray() {
+			if (this.feature != null) {
+				this.feature.startArray();
+				return;
+			}
+			if (this.depth == 0
+					|| (this.depth == 1 && GEOJSON_FEATURES.equals(this.key))) {
+				this.featuresDepth = this.depth + 1;
+			}
+			this.depth++;
+		}
+
+		@Override
+		public void endArray() {
+			if (this.feature != null) {
+				this.feature.endArray();
+				return;
+			}
+			this.depth--;
+			if (this.depth == this.featuresDepth - 1) {
+				// End of the features; later members are not features
+				this.featuresDepth = -1;
+			}
+		}
+
+		@Override
+		public void key(String key) {
+			if (this.feature != null) {
+				this.feature.key(key);
+			} else {
+				this.key = key;
+			}
+		}
+
+		@Override
+		public void value(Object value) {
+			if (this.feature != null) {
+				this.feature.value(value);
+			}
+		}
+
+		private void addIfDone() {
+			if (this.feature.isDone()) {
+				try {
+					put(this.feature.getResult());
+				} catch (IOException e) {
+					throw new JSONException(e.getMessage(), e);
+				}
+				this.feature = null;
+			}
+		}
+	}
+}
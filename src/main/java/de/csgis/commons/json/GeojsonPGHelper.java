@@ -6,14 +6,18 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
-import org.geotools.geojson.geom.GeometryJSON;
-
 import com.vividsolutions.jts.geom.Geometry;
 
 import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
 
 /**
  * A helper to insert, update and/or delete database rows from GeoJSON objects.
@@ -27,6 +31,9 @@ public class GeojsonPGHelper {
 	private String table;
 	private String idColumn, geomColumn;
 	private int srid;
+	private GeometryPreprocessor preprocessor;
+	private GeometryDecoder decoder;
+	private GeojsonFeatureIndex index;
 
 	// Variables containing temporary values for building SQL queries
 	private String fields, values;
@@ -57,6 +64,7 @@ public class GeojsonPGHelper {
 		this.geomColumn = geomColumn;
 		this.table = table;
 		this.srid = srid;
+		this.decoder = new GeometryDecoder(srid);
 
 		this.formats = new SimpleDateFormat[]{
 				new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX"),
@@ -79,6 +87,37 @@ public class GeojsonPGHelper {
 		this.conn = connection;
 	}
 
+	/**
+	 * Sets the preprocessor to apply to the geometries before writing them to
+	 * the database. By default geometries are written as they are.
+	 * 
+	 * @param preprocessor
+	 *            The preprocessor to use or <code>null</code> to write the
+	 *            geometries as they are.
+	 */
+	public void setPreprocessor(GeometryPreprocessor preprocessor) {
+		this.preprocessor = preprocessor;
+	}
+
+	/**
+	 * Sets the index to keep up to date with the written features. When set,
+	 * {@link #update(JSONObject)} does not write the features that have not
+	 * changed according to the index. Inserted features without id are not
+	 * added to the index.
+	 * 
+	 * The index is updated with each statement (the features are removed from
+	 * it if the statement fails), so if the transaction is rolled back the
+	 * affected features must be removed from the index (or the index
+	 * reloaded).
+	 * 
+	 * @param index
+	 *            The index to use or <code>null</code> to always write the
+	 *            features.
+	 */
+	public void setIndex(GeojsonFeatureIndex index) {
+		this.index = index;
+	}
+
 	/**
 	 * Inserts the given object in the database.
 	 * 
@@ -94,17 +133,68 @@ public class GeojsonPGHelper {
 	 *             calling {@link #setConnection(Connection)}.
 	 */
 	public void insert(JSONObject geojson) throws SQLException, IOException {
-		processFields(geojson);
-		String sql = "INSERT INTO " + this.table + " (" + this.fields
-				+ ") VALUES (" + this.values + ")";
-		PreparedStatement st = prepareStatement(geojson, sql);
-		st.executeUpdate();
+		PreparedStatement st = prepareStatement(geojson, insertSQL(geojson));
+		try {
+			st.executeUpdate();
+		} finally {
+			st.close();
+		}
+		index(geojson);
+	}
+
+	/**
+	 * Inserts the given objects in the database using JDBC batches: one batch
+	 * for each different set of properties.
+	 * 
+	 * @param geojsons
+	 *            The objects to insert.
+	 * @throws SQLException
+	 *             if the objects cannot be inserted.
+	 * @throws IOException
+	 *             if the geometry contained in any GeoJSON cannot be
+	 *             translated into WKT.
+	 * @throws NullPointerException
+	 *             if the connection has not been previously configured by
+	 *             calling {@link #setConnection(Connection)}.
+	 */
+	public void insert(Collection<JSONObject> geojsons) throws SQLException,
+			IOException {
+		Map<String, PreparedStatement> batches;
+		batches = new LinkedHashMap<String, PreparedStatement>();
+		try {
+			for (JSONObject geojson : geojsons) {
+				PreparedStatement st = batch(batches, insertSQL(geojson));
+				bind(st, geojson);
+				st.addBatch();
+			}
+			executeBatches(batches);
+		} finally {
+			close(batches);
+		}
+
+		for (JSONObject geojson : geojsons) {
+			index(geojson);
+		}
+	}
+
+	/**
+	 * Adds an inserted object to the index, if any. Objects without id (for
+	 * example, when the database generates it) cannot be indexed.
+	 */
+	private void index(JSONObject geojson) throws IOException {
+		if (this.index != null
+				&& !JSONUtils.isNull(geojson.getJSONObject(GEOJSON_PROPS).opt(
+						this.idColumn))) {
+			this.index.put(geojson);
+		}
 	}
 
 	/**
 	 * Updates the given object in the database. The <code>idField</code>
 	 * property is used for the <code>WHERE</code> clause to update only the
-	 * specific object.
+	 * specific object. If an index has been set (see
+	 * {@link #setIndex(GeojsonFeatureIndex)}) and the object has not changed,
+	 * nothing is written.
 	 * 
 	 * @param geojson
 	 *            The object to update.
@@ -119,20 +209,76 @@ public class GeojsonPGHelper {
 	 *             calling {@link #setConnection(Connection)}.
 	 */
 	public void update(JSONObject geojson) throws SQLException, IOException {
-		processFields(geojson);
-		String sql = "UPDATE " + this.table + " SET (" + this.fields + ") = ("
-				+ this.values + ") WHERE " + idColumn + " = ?";
-		PreparedStatement st = prepareStatement(geojson, sql);
-		JSONObject properties = geojson.getJSONObject(GEOJSON_PROPS);
-		Object id = properties.get(idColumn);
-		if (id == null) {
-			throw new IOException(
-					"GeoJSON missing id('" + idColumn + "') property");
+		// Updated in advance, so the feature id and hash are computed once
+		if (this.index != null && !this.index.put(geojson)) {
+			return;
 		}
 
-		// +1 because index starts at 1; +2 because of geom and srid
-		st.setObject(properties.size() + 3, id);
-		st.executeUpdate();
+		try {
+			PreparedStatement st = prepareStatement(geojson,
+					updateSQL(geojson));
+			try {
+				bindId(st, geojson);
+				st.executeUpdate();
+			} finally {
+				st.close();
+			}
+		} catch (SQLException | IOException | RuntimeException e) {
+			if (this.index != null) {
+				this.index.remove(id(geojson));
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Updates the given objects in the database using JDBC batches: one batch
+	 * for each different set of properties. If an index has been set (see
+	 * {@link #setIndex(GeojsonFeatureIndex)}), the objects that have not
+	 * changed are not written.
+	 * 
+	 * @param geojsons
+	 *            The objects to update.
+	 * @throws SQLException
+	 *             if the objects cannot be updated.
+	 * @throws IOException
+	 *             if the geometry contained in any GeoJSON cannot be
+	 *             translated into WKT or any GeoJSON object does not have a
+	 *             {@link #idColumn} property.
+	 * @throws NullPointerException
+	 *             if the connection has not been previously configured by
+	 *             calling {@link #setConnection(Connection)}.
+	 */
+	public void update(Collection<JSONObject> geojsons) throws SQLException,
+			IOException {
+		// Updated in advance, so the feature ids and hashes are computed once
+		List<JSONObject> changed = new ArrayList<JSONObject>();
+		Map<String, PreparedStatement> batches;
+		batches = new LinkedHashMap<String, PreparedStatement>();
+		try {
+			try {
+				for (JSONObject geojson : geojsons) {
+					if (this.index != null && !this.index.put(geojson)) {
+						continue;
+					}
+					changed.add(geojson);
+					PreparedStatement st = batch(batches, updateSQL(geojson));
+					bind(st, geojson);
+					bindId(st, geojson);
+					st.addBatch();
+				}
+				executeBatches(batches);
+			} finally {
+				close(batches);
+			}
+		} catch (SQLException | IOException | RuntimeException e) {
+			if (this.index != null) {
+				for (JSONObject geojson : changed) {
+					this.index.remove(id(geojson));
+				}
+			}
+			throw e;
+		}
 	}
 
 	/**
@@ -152,17 +298,112 @@ public class GeojsonPGHelper {
 	 *             calling {@link #setConnection(Connection)}.
 	 */
 	public void delete(JSONObject geojson) throws SQLException, IOException {
-		String sql = "DELETE FROM " + this.table + " WHERE " + this.idColumn
-				+ " = ?";
-		PreparedStatement st = this.conn.prepareStatement(sql);
+		Object id = id(geojson);
+		PreparedStatement st = this.conn.prepareStatement(deleteSQL());
+		try {
+			st.setObject(1, id);
+			st.executeUpdate();
+		} finally {
+			st.close();
+		}
+		if (this.index != null) {
+			this.index.remove(id);
+		}
+	}
+
+	/**
+	 * Deletes the given objects from the database using a single JDBC batch.
+	 * 
+	 * @param geojsons
+	 *            The GeoJSON objects to delete. Only the <code>idField</code>
+	 *            (see {@link #GeojsonPGHelper(String, String, String, int)})
+	 *            property is used.
+	 * @throws SQLException
+	 *             if the objects cannot be deleted.
+	 * @throws IOException
+	 *             if any GeoJSON object does not have an {@link #idColumn}
+	 *             property.
+	 * @throws NullPointerException
+	 *             if the connection has not been previously configured by
+	 *             calling {@link #setConnection(Connection)}.
+	 */
+	public void delete(Collection<JSONObject> geojsons) throws SQLException,
+			IOException {
+		List<Object> ids = new ArrayList<Object>();
+		PreparedStatement st = this.conn.prepareStatement(deleteSQL());
+		try {
+			for (JSONObject geojson : geojsons) {
+				Object id = id(geojson);
+				st.setObject(1, id);
+				st.addBatch();
+				ids.add(id);
+			}
+			st.executeBatch();
+		} finally {
+			st.close();
+		}
+
+		if (this.index != null) {
+			for (Object id : ids) {
+				this.index.remove(id);
+			}
+		}
+	}
+
+	private String insertSQL(JSONObject geojson) {
+		processFields(geojson);
+		return "INSERT INTO " + this.table + " (" + this.fields + ") VALUES ("
+				+ this.values + ")";
+	}
+
+	private String updateSQL(JSONObject geojson) {
+		processFields(geojson);
+		return "UPDATE " + this.table + " SET (" + this.fields + ") = ("
+				+ this.values + ") WHERE " + idColumn + " = ?";
+	}
+
+	private String deleteSQL() {
+		return "DELETE FROM " + this.table + " WHERE " + this.idColumn + " = ?";
+	}
+
+	private Object id(JSONObject geojson) throws IOException {
 		Object id = geojson.getJSONObject(GEOJSON_PROPS).get(this.idColumn);
 		if (id == null) {
 			throw new IOException(
 					"GeoJSON missing id('" + idColumn + "') property");
 		}
+		return id;
+	}
 
-		st.setObject(1, id);
-		st.executeUpdate();
+	private void bindId(PreparedStatement st, JSONObject geojson)
+			throws SQLException, IOException {
+		// +1 because index starts at 1; +2 because of geom and srid
+		int size = geojson.getJSONObject(GEOJSON_PROPS).size();
+		st.setObject(size + 3, id(geojson));
+	}
+
+	private PreparedStatement batch(Map<String, PreparedStatement> batches,
+			String sql) throws SQLException {
+		PreparedStatement st = batches.get(sql);
+		if (st == null) {
+			st = this.conn.prepareStatement(sql);
+			batches.put(sql, st);
+		}
+		return st;
+	}
+
+	private void executeBatches(Map<String, PreparedStatement> batches)
+			throws SQLException {
+		for (PreparedStatement st : batches.values()) {
+			st.executeBatch();
+		}
+	}
+
+	private void close(Map<String, PreparedStatement> batches)
+			throws SQLException {
+		for (PreparedStatement st : batches.values()) {
+			st.close();
+		}
 	}
 
 	private void processFields(JSONObject geojson) {
@@ -182,6 +423,17 @@ public class GeojsonPGHelper {
 	private PreparedStatement prepareStatement(JSONObject geojson, String sql)
 			throws SQLException, IOException {
 		PreparedStatement st = this.conn.prepareStatement(sql);
+		try {
+			bind(st, geojson);
+		} catch (SQLException | IOException | RuntimeException e) {
+			st.close();
+			throw e;
+		}
+		return st;
+	}
+
+	private void bind(PreparedStatement st, JSONObject geojson)
+			throws SQLException, IOException {
 		JSONObject properties = geojson.getJSONObject(GEOJSON_PROPS);
 
 		int j = 1;
@@ -203,20 +455,30 @@ public class GeojsonPGHelper {
 			}
 		}
 
-		String geoJsonGeom = geojson.getJSONObject(GEOJSON_GEOM).toString();
-		Geometry geom = new GeometryJSON().read(geoJsonGeom);
+		Geometry geom = this.decoder
+				.decode(geojson.getJSONObject(GEOJSON_GEOM));
 
-		if (geom == null) {
-			throw new IOException("Invalid GeoJSON geometry");
+		if (this.preprocessor != null) {
+			try {
+				geom = this.preprocessor.process(geom);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid GeoJSON geometry", e);
+			}
 		}
 
 		st.setString(j++, geom.toText());
 		st.setInt(j++, srid);
-
-		return st;
 	}
 
 	public String getTable() {
 		return table;
 	}
+
+	public String getIdColumn() {
+		return idColumn;
+	}
+
+	public GeojsonFeatureIndex getIndex() {
+		return index;
+	}
 }
@@ -0,0 +1,589 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.json.JSONObject;
+
+import org.apache.log4j.Logger;
+
+import de.csgis.commons.JSONUtils;
+
+/**
+ * Asynchronous front-end for a {@link GeojsonPGHelper}. Edits are queued and
+ * written in batches by a background thread, one transaction per batch, so
+ * callers do not wait for the database. Batches are written with the
+ * {@link GeojsonPGHelper} methods for collections, which use JDBC batches.
+ *
+ * <p>
+ * Edits for the same id are written in the same order they are queued.
+ * Pending edits for the same id are coalesced (e.g. an insert followed by an
+ * update is written as a single insert). When the queue is full, the methods
+ * adding edits block until there is space.
+ * </p>
+ *
+ * <p>
+ * If the background thread stops unexpectedly (it is interrupted, an
+ * {@link Error} is thrown while writing or a failed batch cannot be rolled
+ * back), all the pending edits fail and the queue cannot be used anymore.
+ * </p>
+ *
+ * <p>
+ * The queue takes ownership of the helper; it must not be used directly while
+ * the queue is open.
+ * </p>
+ */
+public class GeojsonPGWriteQueue {
+	private static final Logger logger = Logger
+			.getLogger(GeojsonPGWriteQueue.class);
+	private static final String GEOJSON_PROPS = "properties";
+
+	private enum Type {
+		INSERT, UPDATE, DELETE, NONE
+	}
+
+	private GeojsonPGHelper helper;
+	private Connection conn;
+	private int capacity, batchSize;
+	private long maxDelay;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition written = lock.newCondition();
+
+	// Guarded by lock
+	private Deque<Edit> pending = new ArrayDeque<Edit>();
+	private Map<Object, Edit> latest = new HashMap<Object, Edit>();
+	private long lastQueued, lastWritten;
+	private boolean flushRequested, closed;
+	private Throwable failure;
+
+	private Thread writer;
+
+	/**
+	 * Creates a new queue and starts its background thread.
+	 *
+	 * @param helper
+	 *            The helper to write the edits with.
+	 * @param connection
+	 *            The connection to write the edits with. It must not be used
+	 *            by other threads while the queue is open.
+	 * @param capacity
+	 *            The maximum number of pending edits.
+	 * @param batchSize
+	 *            The number of pending edits that triggers a write. It is
+	 *            also the maximum number of edits per transaction.
+	 * @param maxDelay
+	 *            The maximum time (in milliseconds) an edit waits before being
+	 *            written, even if there are less than <code>batchSize</code>
+	 *            pending edits.
+	 */
+	public GeojsonPGWriteQueue(GeojsonPGHelper helper, Connection connection,
+			int capacity, int batchSize, long maxDelay) {
+		if (capacity < 1 || batchSize < 1 || maxDelay < 0) {
+			throw new IllegalArgumentException("Invalid queue configuration");
+		}
+		this.helper = helper;
+		this.conn = connection;
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.maxDelay = maxDelay;
+
+		this.helper.setConnection(connection);
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "geojson-pg-write-queue-" + helper.getTable());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queues an insert. See {@link GeojsonPGHelper#insert(JSONObject)}.
+	 *
+	 * @param geojson
+	 *            The object to insert.
+	 * @return A future completed when the object has been written. If the
+	 *         write fails, {@link Future#get()} throws an
+	 *         {@link ExecutionException} with the {@link SQLException} or
+	 *         {@link IOException} as cause. It cannot be cancelled:
+	 *         {@link Future#cancel(boolean)} always returns <code>false</code>.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue.
+	 * @throws IllegalStateException
+	 *             if the queue has been closed or its background thread has
+	 *             stopped.
+	 */
+	public Future<Void> insert(JSONObject geojson) throws InterruptedException {
+		return add(Type.INSERT, geojson);
+	}
+
+	/**
+	 * Queues an update. See {@link GeojsonPGHelper#update(JSONObject)}.
+	 *
+	 * @param geojson
+	 *            The object to update.
+	 * @return A future completed when the object has been written. See
+	 *         {@link #insert(JSONObject)}.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue.
+	 * @throws IllegalStateException
+	 *             if the queue has been closed or its background thread has
+	 *             stopped.
+	 */
+	public Future<Void> update(JSONObject geojson) throws InterruptedException {
+		return add(Type.UPDATE, geojson);
+	}
+
+	/**
+	 * Queues a delete. See {@link GeojsonPGHelper#delete(JSONObject)}.
+	 *
+	 * @param geojson
+	 *            The object to delete.
+	 * @return A future completed when the object has been deleted. See
+	 *         {@link #insert(JSONObject)}.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue.
+	 * @throws IllegalStateException
+	 *             if the queue has been closed or its background thread has
+	 *             stopped.
+	 */
+	public Future<Void> delete(JSONObject geojson) throws InterruptedException {
+		return add(Type.DELETE, geojson);
+	}
+
+	/**
+	 * Writes all the edits queued so far, without waiting for the batch size
+	 * or the maximum delay, and waits until they have been written.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 * @throws IllegalStateException
+	 *             if the background thread has stopped.
+	 */
+	public void flush() throws InterruptedException {
+		this.lock.lock();
+		try {
+			long target = this.lastQueued;
+			this.flushRequested = true;
+			this.notEmpty.signal();
+			checkRunning();
+			while (this.lastWritten < target) {
+				this.written.await();
+				checkRunning();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all the pending edits and stops the background thread. No more
+	 * edits can be queued afterwards.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void close() throws InterruptedException {
+		this.lock.lock();
+		try {
+			this.closed = true;
+			this.notEmpty.signal();
+			this.notFull.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+		this.writer.join();
+	}
+
+	private Future<Void> add(Type type, JSONObject geojson)
+			throws InterruptedException {
+		Object id = geojson.getJSONObject(GEOJSON_PROPS).opt(
+				this.helper.getIdColumn());
+		Result result = new Result();
+
+		this.lock.lockInterruptibly();
+		try {
+			checkOpen();
+
+			Edit edit = id != null ? this.latest.get(id) : null;
+			if (edit != null && coalesce(edit, type, geojson)) {
+				edit.results.add(result);
+				return result;
+			}
+
+			while (this.pending.size() >= this.capacity && !this.closed
+					&& this.failure == null) {
+				this.notFull.await();
+			}
+			checkOpen();
+
+			edit = new Edit(type, geojson, id, ++this.lastQueued);
+			edit.results.add(result);
+			this.pending.add(edit);
+			if (id != null) {
+				this.latest.put(id, edit);
+			}
+			if (this.pending.size() >= this.batchSize
+					|| this.pending.size() == 1) {
+				this.notEmpty.signal();
+			}
+			return result;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	private void checkOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("Queue closed");
+		}
+		checkRunning();
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	private void checkRunning() {
+		if (this.failure != null) {
+			throw new IllegalStateException("Queue writer stopped",
+					this.failure);
+		}
+	}
+
+	/**
+	 * Merges the new edit into the pending one, if the result is equivalent
+	 * to writing both.
+	 */
+	private boolean coalesce(Edit edit, Type type, JSONObject geojson) {
+		Type merged = null;
+		if (edit.type == Type.NONE) {
+			merged = type;
+		} else if (edit.type == Type.INSERT && type == Type.UPDATE) {
+			merged = Type.INSERT;
+		} else if (edit.type == Type.INSERT && type == Type.DELETE) {
+			// Never written; nothing to delete
+			merged = Type.NONE;
+		} else if (edit.type == Type.UPDATE && type != Type.INSERT) {
+			merged = type;
+		}
+
+		if (merged == null) {
+			return false;
+		}
+
+		if (merged != Type.DELETE && edit.type != Type.NONE) {
+			// Updates only write the given properties; keep the previous ones
+			JSONObject properties = JSONUtils.merge(
+					edit.geojson.getJSONObject(GEOJSON_PROPS),
+					geojson.getJSONObject(GEOJSON_PROPS));
+
+			// JSONObject#element would parse the strings that look like JSON
+			JSONObject coalesced = new JSONObject();
+			for (Object key : geojson.keySet()) {
+				if (!key.equals(GEOJSON_PROPS)) {
+					JSONUtils.element(coalesced, key.toString(),
+							geojson.get(key));
+				}
+			}
+			JSONUtils.element(coalesced, GEOJSON_PROPS, properties);
+			geojson = coalesced;
+		}
+		edit.type = merged;
+		edit.geojson = geojson;
+		return true;
+	}
+
+	private void writeLoop() {
+		List<Edit> batch = null;
+		try {
+			while (true) {
+				this.lock.lock();
+				try {
+					batch = nextBatch();
+				} finally {
+					this.lock.unlock();
+				}
+
+				if (batch == null) {
+					return;
+				}
+
+				Throwable error = write(batch);
+
+				this.lock.lock();
+				try {
+					this.lastWritten = batch.get(batch.size() - 1).sequence;
+					this.written.signalAll();
+				} finally {
+					this.lock.unlock();
+				}
+
+				if (error != null && !(error instanceof Exception)) {
+					stop(error);
+					return;
+				}
+				batch = null;
+			}
+		} catch (Throwable e) {
+			if (batch != null) {
+				complete(batch, e);
+			}
+			stop(e);
+		}
+	}
+
+	/**
+	 * Fails all the pending edits and makes the queue unusable.
+	 */
+	private void stop(Throwable cause) {
+		logger.error("GeoJSON write queue stopped", cause);
+		this.lock.lock();
+		try {
+			this.failure = cause;
+			for (Edit edit : this.pending) {
+				for (Result result : edit.results) {
+					result.complete(cause);
+				}
+			}
+			this.pending.clear();
+			this.latest.clear();
+			this.written.signalAll();
+			this.notFull.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until there is a batch to write and removes it from the pending
+	 * edits. Must be called holding the lock.
+	 *
+	 * @return The batch or <code>null</code> if the queue is closed and there
+	 *         are no pending edits.
+	 */
+	private List<Edit> nextBatch() throws InterruptedException {
+		while (this.pending.isEmpty()) {
+			if (this.closed) {
+				return null;
+			}
+			this.flushRequested = false;
+			this.notEmpty.await();
+		}
+
+		long deadline = this.pending.peek().queued
+				+ TimeUnit.MILLISECONDS.toNanos(this.maxDelay);
+		long remaining = deadline - System.nanoTime();
+		while (this.pending.size() < this.batchSize && remaining > 0
+				&& !this.flushRequested && !this.closed) {
+			remaining = this.notEmpty.awaitNanos(remaining);
+		}
+
+		List<Edit> batch = new ArrayList<Edit>();
+		while (batch.size() < this.batchSize && !this.pending.isEmpty()) {
+			Edit edit = this.pending.poll();
+			if (edit.id != null && this.latest.get(edit.id) == edit) {
+				this.latest.remove(edit.id);
+			}
+			batch.add(edit);
+		}
+		if (this.pending.isEmpty()) {
+			this.flushRequested = false;
+		}
+		this.notFull.signalAll();
+		return batch;
+	}
+
+	/**
+	 * Writes the given batch in a single transaction and completes its
+	 * futures.
+	 *
+	 * @return The error that made the batch fail or <code>null</code>.
+	 */
+	private Throwable write(List<Edit> batch) {
+		Throwable error = null;
+		boolean open = false;
+		try {
+			boolean autoCommit = this.conn.getAutoCommit();
+			this.conn.setAutoCommit(false);
+			open = true;
+			try {
+				apply(batch);
+				this.conn.commit();
+			} catch (Throwable e) {
+				error = e;
+				this.conn.rollback();
+			}
+			open = false;
+			this.conn.setAutoCommit(autoCommit);
+		} catch (SQLException | RuntimeException e) {
+			if (open) {
+				// The rollback failed. Restoring the auto-commit mode or
+				// writing more batches would commit the edits written so far
+				complete(batch, error);
+				throw new IllegalStateException("Cannot roll back GeoJSON "
+						+ "edits", e);
+			}
+			logger.error("Cannot manage the transaction for GeoJSON edits", e);
+			if (error == null) {
+				error = e;
+			}
+		}
+
+		complete(batch, error);
+		return error;
+	}
+
+	private void complete(List<Edit> batch, Throwable error) {
+		GeojsonFeatureIndex index = this.helper.getIndex();
+		for (Edit edit : batch) {
+			if (error != null && index != null && edit.id != null) {
+				// Rolled back; the index may contain the new contents
+				index.remove(edit.id);
+			}
+			for (Result result : edit.results) {
+				result.complete(error);
+			}
+		}
+	}
+
+	/**
+	 * Writes the edits with the helper methods for collections. The batch is
+	 * split where an id is repeated, so the edits for the same id are written
+	 * in order. Within each part, deletes are written first, so the values
+	 * they release can be reused by the other edits.
+	 */
+	private void apply(List<Edit> batch) throws SQLException, IOException {
+		List<Edit> part = new ArrayList<Edit>();
+		Set<Object> ids = new HashSet<Object>();
+		for (Edit edit : batch) {
+			if (edit.id != null && !ids.add(edit.id)) {
+				applyPart(part);
+				part.clear();
+				ids.clear();
+				ids.add(edit.id);
+			}
+			part.add(edit);
+		}
+		applyPart(part);
+	}
+
+	private void applyPart(List<Edit> part) throws SQLException, IOException {
+		List<JSONObject> inserts = new ArrayList<JSONObject>();
+		List<JSONObject> updates = new ArrayList<JSONObject>();
+		List<JSONObject> deletes = new ArrayList<JSONObject>();
+		for (Edit edit : part) {
+			if (edit.type == Type.INSERT) {
+				inserts.add(edit.geojson);
+			} else if (edit.type == Type.UPDATE) {
+				updates.add(edit.geojson);
+			} else if (edit.type == Type.DELETE) {
+				deletes.add(edit.geojson);
+			}
+		}
+
+		if (!deletes.isEmpty()) {
+			this.helper.delete(deletes);
+		}
+		if (!inserts.isEmpty()) {
+			this.helper.insert(inserts);
+		}
+		if (!updates.isEmpty()) {
+			this.helper.update(updates);
+		}
+	}
+
+	private static class Edit {
+		private Type type;
+		private JSONObject geojson;
+		private Object id;
+		private long sequence;
+		private long queued = System.nanoTime();
+		private List<Result> results = new ArrayList<Result>(1);
+
+		private Edit(Type type, JSONObject geojson, Object id, long sequence) {
+			this.type = type;
+			this.geojson = geojson;
+			this.id = id;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Future of a queued edit. Edits cannot be cancelled once queued.
+	 */
+	private static class Result implements Future<Void> {
+		private CountDownLatch done = new CountDownLatch(1);
+		private Throwable error;
+
+		/**
+		 * Completes the future, if it has not been completed yet.
+		 */
+		private synchronized void complete(Throwable error) {
+			if (this.done.getCount() > 0) {
+				this.error = error;
+				this.done.countDown();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return this.done.getCount() == 0;
+		}
+
+		@Override
+		public Void get() throws InterruptedException, ExecutionException {
+			this.done.await();
+			return result();
+		}
+
+		@Override
+		public Void get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException,
+				TimeoutException {
+			if (!this.done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Void result() throws ExecutionException {
+			if (this.error != null) {
+				throw new ExecutionException(this.error);
+			}
+			return null;
+		}
+	}
+}
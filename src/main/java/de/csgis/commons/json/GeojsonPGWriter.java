@@ -0,0 +1,236 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.json.JSONObject;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes GeoJSON edits for several tables in a single transaction. Edits are
+ * routed by layer name to the {@link GeojsonPGHelper} registered for that
+ * layer and buffered until {@link #write(Connection)} is called.
+ *
+ * <p>
+ * Layers must be registered in dependency order: referenced tables first.
+ * Inserts and updates are written in that order and deletes in the reverse
+ * order, so foreign keys are never violated in between. Within a table,
+ * inserts are written first, then updates and then deletes, so each feature
+ * can only have one edit per write.
+ * </p>
+ */
+public class GeojsonPGWriter {
+	private static final Logger logger = Logger
+			.getLogger(GeojsonPGWriter.class);
+
+	private Map<String, Layer> layers = new LinkedHashMap<String, Layer>();
+
+	/**
+	 * Registers the helper for the given layer.
+	 * 
+	 * @param layer
+	 *            The layer name.
+	 * @param helper
+	 *            The helper to write the layer features with.
+	 */
+	public void addLayer(String layer, GeojsonPGHelper helper) {
+		this.layers.put(layer, new Layer(helper));
+	}
+
+	/**
+	 * Adds an insert to the next write.
+	 * 
+	 * @param layer
+	 *            The layer of the feature.
+	 * @param geojson
+	 *            The feature to insert.
+	 * @throws IllegalArgumentException
+	 *             if the layer has not been registered or the feature
+	 *             already has an edit in the next write.
+	 */
+	public void insert(String layer, JSONObject geojson) {
+		Layer l = layer(layer);
+		l.add(l.inserts, geojson);
+	}
+
+	/**
+	 * Adds an update to the next write.
+	 * 
+	 * @param layer
+	 *            The layer of the feature.
+	 * @param geojson
+	 *            The feature to update.
+	 * @throws IllegalArgumentException
+	 *             if the layer has not been registered or the feature
+	 *             already has an edit in the next write.
+	 */
+	public void update(String layer, JSONObject geojson) {
+		Layer l = layer(layer);
+		l.add(l.updates, geojson);
+	}
+
+	/**
+	 * Adds a delete to the next write.
+	 * 
+	 * @param layer
+	 *            The layer of the feature.
+	 * @param geojson
+	 *            The feature to delete.
+	 * @throws IllegalArgumentException
+	 *             if the layer has not been registered or the feature
+	 *             already has an edit in the next write.
+	 */
+	public void delete(String layer, JSONObject geojson) {
+		Layer l = layer(layer);
+		l.add(l.deletes, geojson);
+	}
+
+	/**
+	 * Writes all the buffered edits in a single transaction, using JDBC
+	 * batches for each table. The transaction is committed if all the edits
+	 * are written and rolled back otherwise. In both cases the buffered edits
+	 * are discarded.
+	 * 
+	 * The auto-commit mode of the connection is restored afterwards, unless
+	 * the transaction cannot be rolled back: restoring it would commit the
+	 * edits written so far.
+	 * 
+	 * @param connection
+	 *            The connection to use. It is set on all the registered
+	 *            helpers.
+	 * @throws SQLException
+	 *             if any edit cannot be written.
+	 * @throws IOException
+	 *             if any feature is not valid.
+	 */
+	public void write(Connection connection) throws SQLException, IOException {
+		List<Layer> ordered = new ArrayList<Layer>(this.layers.values());
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		boolean finished = false;
+		try {
+			for (Layer layer : ordered) {
+				layer.helper.setConnection(connection);
+				if (!layer.inserts.isEmpty()) {
+					layer.helper.insert(layer.inserts);
+				}
+				if (!layer.updates.isEmpty()) {
+					layer.helper.update(layer.updates);
+				}
+			}
+			for (int i = ordered.size() - 1; i >= 0; i--) {
+				Layer layer = ordered.get(i);
+				if (!layer.deletes.isEmpty()) {
+					layer.helper.delete(layer.deletes);
+				}
+			}
+			connection.commit();
+			finished = true;
+		} catch (Throwable e) {
+			finished = rollback(connection, ordered);
+			throw e;
+		} finally {
+			for (Layer layer : ordered) {
+				layer.clear();
+			}
+			if (finished) {
+				try {
+					connection.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					// Do not hide the exception thrown while writing, if any
+					logger.error("Cannot restore the auto-commit mode", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rolls back the transaction and removes the edited features from the
+	 * indexes.
+	 * 
+	 * @return <code>true</code> if the transaction has been rolled back.
+	 */
+	private boolean rollback(Connection connection, List<Layer> layers) {
+		boolean rolledBack = false;
+		try {
+			connection.rollback();
+			rolledBack = true;
+		} catch (SQLException | RuntimeException e) {
+			logger.error("Cannot rollback GeoJSON edits; the auto-commit "
+					+ "mode of the connection is not restored", e);
+		}
+
+		// The indexes may contain the rolled back contents
+		for (Layer layer : layers) {
+			GeojsonFeatureIndex index = layer.helper.getIndex();
+			if (index != null) {
+				String idColumn = layer.helper.getIdColumn();
+				for (JSONObject geojson : layer.all()) {
+					JSONObject properties = geojson.optJSONObject("properties");
+					if (properties != null && properties.has(idColumn)) {
+						index.remove(properties.get(idColumn));
+					}
+				}
+			}
+		}
+		return rolledBack;
+	}
+
+	private Layer layer(String name) {
+		Layer layer = this.layers.get(name);
+		if (layer == null) {
+			throw new IllegalArgumentException("Unknown layer: " + name);
+		}
+		return layer;
+	}
+
+	private static class Layer {
+		private GeojsonPGHelper helper;
+		private List<JSONObject> inserts = new ArrayList<JSONObject>();
+		private List<JSONObject> updates = new ArrayList<JSONObject>();
+		private List<JSONObject> deletes = new ArrayList<JSONObject>();
+		private Set<Object> ids = new HashSet<Object>();
+
+		private Layer(GeojsonPGHelper helper) {
+			this.helper = helper;
+		}
+
+		private void add(List<JSONObject> edits, JSONObject geojson) {
+			JSONObject properties = geojson.optJSONObject("properties");
+			Object id = properties != null ? properties.opt(this.helper
+					.getIdColumn()) : null;
+			if (id instanceof Integer || id instanceof Short
+					|| id instanceof Byte) {
+				id = Long.valueOf(((Number) id).longValue());
+			}
+			if (id != null && !this.ids.add(id)) {
+				throw new IllegalArgumentException("Feature " + id
+						+ " already has an edit in table "
+						+ this.helper.getTable());
+			}
+			edits.add(geojson);
+		}
+
+		private List<JSONObject> all() {
+			List<JSONObject> ret = new ArrayList<JSONObject>(this.inserts);
+			ret.addAll(this.updates);
+			ret.addAll(this.deletes);
+			return ret;
+		}
+
+		private void clear() {
+			this.inserts.clear();
+			this.updates.clear();
+			this.deletes.clear();
+			this.ids.clear();
+		}
+	}
+}
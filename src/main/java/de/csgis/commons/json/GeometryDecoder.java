@@ -0,0 +1,192 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Decodes GeoJSON geometries from already parsed {@link JSONObject} instances.
+ * Coordinates are copied directly into {@link PackedCoordinateSequence}
+ * instances, without serializing the geometry to text or creating
+ * intermediate coordinate objects.
+ *
+ * Instances are thread-safe and meant to be reused.
+ */
+public class GeometryDecoder {
+	private static final String TYPE = "type";
+	private static final String COORDINATES = "coordinates";
+	private static final String GEOMETRIES = "geometries";
+
+	private GeometryFactory factory;
+
+	/**
+	 * Creates a new decoder for the given SRID.
+	 *
+	 * @param srid
+	 *            The SRID of the decoded geometries.
+	 */
+	public GeometryDecoder(int srid) {
+		this(new GeometryFactory(new PrecisionModel(), srid,
+				PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
+	}
+
+	/**
+	 * Creates a new decoder using the given factory to create geometries.
+	 *
+	 * @param factory
+	 *            The factory to use.
+	 */
+	public GeometryDecoder(GeometryFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Decodes the given GeoJSON geometry.
+	 *
+	 * @param geometry
+	 *            The GeoJSON geometry.
+	 * @return The decoded geometry. Never <code>null</code>.
+	 * @throws IOException
+	 *             if the given object is not a valid GeoJSON geometry.
+	 */
+	public Geometry decode(JSONObject geometry) throws IOException {
+		if (geometry == null || geometry.isNullObject()) {
+			throw new IOException("Missing GeoJSON geometry");
+		}
+
+		Object type = geometry.opt(TYPE);
+		if ("GeometryCollection".equals(type)) {
+			JSONArray geometries = array(geometry.opt(GEOMETRIES));
+			Geometry[] ret = new Geometry[geometries.size()];
+			for (int i = 0; i < ret.length; i++) {
+				Object child = geometries.get(i);
+				if (!(child instanceof JSONObject)) {
+					throw new IOException("Invalid GeoJSON geometry");
+				}
+				ret[i] = decode((JSONObject) child);
+			}
+			return this.factory.createGeometryCollection(ret);
+		}
+
+		JSONArray coordinates = array(geometry.opt(COORDINATES));
+		if ("Point".equals(type)) {
+			return point(coordinates);
+		} else if ("MultiPoint".equals(type)) {
+			Point[] ret = new Point[coordinates.size()];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = point(array(coordinates.get(i)));
+			}
+			return this.factory.createMultiPoint(ret);
+		} else if ("LineString".equals(type)) {
+			return lineString(coordinates);
+		} else if ("MultiLineString".equals(type)) {
+			LineString[] ret = new LineString[coordinates.size()];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = lineString(array(coordinates.get(i)));
+			}
+			return this.factory.createMultiLineString(ret);
+		} else if ("Polygon".equals(type)) {
+			return polygon(coordinates);
+		} else if ("MultiPolygon".equals(type)) {
+			Polygon[] ret = new Polygon[coordinates.size()];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = polygon(array(coordinates.get(i)));
+			}
+			return this.factory.createMultiPolygon(ret);
+		}
+
+		throw new IOException("Invalid GeoJSON geometry type: " + type);
+	}
+
+	private Point point(JSONArray position) throws IOException {
+		int dimension = dimension(position);
+		double[] packed = new double[dimension];
+		copy(position, packed, 0, dimension);
+		return this.factory.createPoint(new PackedCoordinateSequence.Double(
+				packed, dimension));
+	}
+
+	private LineString lineString(JSONArray positions) throws IOException {
+		try {
+			return this.factory.createLineString(sequence(positions));
+		} catch (IllegalArgumentException e) {
+			// Less than 2 points
+			throw new IOException("Invalid GeoJSON geometry", e);
+		}
+	}
+
+	private Polygon polygon(JSONArray rings) throws IOException {
+		if (rings.isEmpty()) {
+			return this.factory.createPolygon(null, null);
+		}
+
+		try {
+			LinearRing shell = this.factory.createLinearRing(sequence(array(rings
+					.get(0))));
+			LinearRing[] holes = new LinearRing[rings.size() - 1];
+			for (int i = 0; i < holes.length; i++) {
+				holes[i] = this.factory.createLinearRing(sequence(array(rings
+						.get(i + 1))));
+			}
+			return this.factory.createPolygon(shell, holes);
+		} catch (IllegalArgumentException e) {
+			// Ring not closed or with less than 4 points
+			throw new IOException("Invalid GeoJSON geometry", e);
+		}
+	}
+
+	private CoordinateSequence sequence(JSONArray positions)
+			throws IOException {
+		int size = positions.size();
+		int dimension = size > 0 ? dimension(array(positions.get(0))) : 2;
+		double[] packed = new double[size * dimension];
+		for (int i = 0; i < size; i++) {
+			copy(array(positions.get(i)), packed, i * dimension, dimension);
+		}
+		return new PackedCoordinateSequence.Double(packed, dimension);
+	}
+
+	private int dimension(JSONArray position) throws IOException {
+		if (position.size() < 2) {
+			throw new IOException("Invalid GeoJSON position: " + position);
+		}
+		return position.size() > 2 ? 3 : 2;
+	}
+
+	private void copy(JSONArray position, double[] packed, int offset,
+			int dimension) throws IOException {
+		int size = Math.min(position.size(), dimension);
+		if (size < 2) {
+			throw new IOException("Invalid GeoJSON position: " + position);
+		}
+		for (int i = 0; i < size; i++) {
+			Object value = position.get(i);
+			if (!(value instanceof Number)) {
+				throw new IOException("Invalid GeoJSON position: " + position);
+			}
+			packed[offset + i] = ((Number) value).doubleValue();
+		}
+		for (int i = size; i < dimension; i++) {
+			packed[offset + i] = Double.NaN;
+		}
+	}
+
+	private JSONArray array(Object value) throws IOException {
+		if (!(value instanceof JSONArray)) {
+			throw new IOException("Invalid GeoJSON coordinates: " + value);
+		}
+		return (JSONArray) value;
+	}
+}
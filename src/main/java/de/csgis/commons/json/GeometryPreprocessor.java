@@ -0,0 +1,113 @@
+package de.csgis.commons.json;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateArrays;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.util.GeometryTransformer;
+import com.vividsolutions.jts.precision.GeometryPrecisionReducer;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Reduces the size of the geometries before writing them to the database. It
+ * simplifies the geometry (optional), snaps its coordinates to a precision
+ * model (optional) and removes repeated points.
+ *
+ * @see GeojsonPGHelper#setPreprocessor(GeometryPreprocessor)
+ */
+public class GeometryPreprocessor {
+	private PrecisionModel precisionModel;
+	private double tolerance;
+	private boolean preserveTopology;
+
+	/**
+	 * Creates a new preprocessor that only removes repeated points.
+	 */
+	public GeometryPreprocessor() {
+		this(0, 0, false);
+	}
+
+	/**
+	 * Creates a new preprocessor.
+	 *
+	 * @param scale
+	 *            The scale of the precision model to snap coordinates to, as
+	 *            in {@link PrecisionModel#PrecisionModel(double)}. For example,
+	 *            1000 keeps 3 decimal digits. Use 0 to keep the original
+	 *            coordinates.
+	 * @param tolerance
+	 *            The distance tolerance for simplification, in the units of
+	 *            the geometry. Use 0 to skip simplification.
+	 * @param preserveTopology
+	 *            <code>true</code> to simplify with
+	 *            {@link TopologyPreservingSimplifier}, <code>false</code> to
+	 *            use {@link DouglasPeuckerSimplifier}.
+	 */
+	public GeometryPreprocessor(double scale, double tolerance,
+			boolean preserveTopology) {
+		this.precisionModel = scale > 0 ? new PrecisionModel(scale) : null;
+		this.tolerance = tolerance;
+		this.preserveTopology = preserveTopology;
+	}
+
+	/**
+	 * Processes the given geometry. Steps that would collapse the geometry
+	 * (i.e. return an empty geometry or a geometry of a different type) are
+	 * skipped, so the result is always a valid replacement for the original
+	 * geometry.
+	 *
+	 * @param geom
+	 *            The geometry to process. It is not modified.
+	 * @return The processed geometry.
+	 * @throws IllegalArgumentException
+	 *             if the geometry cannot be processed (i.e. it is invalid).
+	 */
+	public Geometry process(Geometry geom) {
+		Geometry ret = geom;
+		if (this.tolerance > 0) {
+			ret = keepIfCollapsed(ret,
+					this.preserveTopology ? TopologyPreservingSimplifier
+							.simplify(ret, this.tolerance)
+							: DouglasPeuckerSimplifier.simplify(ret,
+									this.tolerance));
+		}
+
+		if (this.precisionModel != null) {
+			// Also removes the repeated points created by snapping
+			ret = keepIfCollapsed(ret,
+					GeometryPrecisionReducer.reduce(ret, this.precisionModel));
+		} else {
+			ret = new RepeatedPointRemover().transform(ret);
+		}
+		return ret;
+	}
+
+	private static Geometry keepIfCollapsed(Geometry original,
+			Geometry processed) {
+		boolean collapsed = (processed.isEmpty() && !original.isEmpty())
+				|| !processed.getGeometryType().equals(
+						original.getGeometryType());
+		return collapsed ? original : processed;
+	}
+
+	private static class RepeatedPointRemover extends GeometryTransformer {
+		@Override
+		protected CoordinateSequence transformCoordinates(
+				CoordinateSequence coords, Geometry parent) {
+			Coordinate[] coordinates = coords.toCoordinateArray();
+			if (!CoordinateArrays.hasRepeatedPoints(coordinates)) {
+				return copy(coords);
+			}
+
+			// Keep the original coordinates if the component would collapse
+			Coordinate[] ret = CoordinateArrays
+					.removeRepeatedPoints(coordinates);
+			int min = parent instanceof LinearRing ? 4 : 2;
+			return ret.length >= min ? createCoordinateSequence(ret)
+					: copy(coords);
+		}
+	}
+}
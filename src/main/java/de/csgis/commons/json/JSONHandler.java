@@ -0,0 +1,46 @@
+package de.csgis.commons.json;
+
+/**
+ * Receives the events produced by {@link StreamingJSONParser} while reading
+ * JSON text, without building any intermediate object.
+ */
+public interface JSONHandler {
+	/**
+	 * Called when a JSON object starts.
+	 */
+	void startObject();
+
+	/**
+	 * Called when a JSON object ends.
+	 */
+	void endObject();
+
+	/**
+	 * Called when a JSON array starts.
+	 */
+	void startArray();
+
+	/**
+	 * Called when a JSON array ends.
+	 */
+	void endArray();
+
+	/**
+	 * Called for each key in a JSON object, before its value.
+	 * 
+	 * @param key
+	 *            The key.
+	 */
+	void key(String key);
+
+	/**
+	 * Called for each primitive value.
+	 * 
+	 * @param value
+	 *            A {@link String}, {@link Number}, {@link Boolean} or
+	 *            <code>null</code>. Numbers are {@link Integer}, {@link Long},
+	 *            {@link java.math.BigInteger}, {@link Double} or
+	 *            {@link java.math.BigDecimal} instances.
+	 */
+	void value(Object value);
+}
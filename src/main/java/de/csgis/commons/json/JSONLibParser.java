@@ -0,0 +1,24 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * {@link JSONParser} delegating on {@link JSONObject#fromObject(Object)}.
+ */
+public class JSONLibParser implements JSONParser {
+	@Override
+	public JSONObject parse(String json) throws JSONException {
+		return JSONObject.fromObject(json);
+	}
+
+	@Override
+	public JSONObject parse(Reader reader) throws IOException, JSONException {
+		return parse(IOUtils.toString(reader));
+	}
+}
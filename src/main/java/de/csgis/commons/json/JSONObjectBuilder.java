@@ -0,0 +1,160 @@
+package de.csgis.commons.json;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+/**
+ * {@link JSONHandler} building {@link JSONObject} and {@link JSONArray}
+ * instances. Nested containers are added empty to their parent and filled
+ * afterwards, since {@link JSONObject#element(String, Object)} copies the given
+ * value.
+ */
+class JSONObjectBuilder implements JSONHandler {
+	private JSONObject result;
+	private Deque<Object> stack = new ArrayDeque<Object>();
+	private String key;
+
+	/**
+	 * Converts an unquoted literal starting like a number the same way as
+	 * json-lib: octal and hexadecimal integers first and then commons-lang,
+	 * which reads most decimals as floats.
+	 * 
+	 * @param literal
+	 *            The literal.
+	 * @return The number, or the literal itself if it is not a number.
+	 */
+	static Object toNumber(String literal) {
+		if (literal.charAt(0) == '0') {
+			try {
+				char second = literal.length() > 2 ? literal.charAt(1) : 0;
+				if (second == 'x' || second == 'X') {
+					return Integer.valueOf(literal.substring(2), 16);
+				}
+				return Integer.valueOf(literal, 8);
+			} catch (NumberFormatException e) {
+				// Not hexadecimal nor octal; same as json-lib
+			}
+		}
+
+		try {
+			return NumberUtils.createNumber(literal);
+		} catch (NumberFormatException e) {
+			return literal;
+		}
+	}
+
+	/**
+	 * Returns the built object.
+	 * 
+	 * @return The outermost object, or <code>null</code> if it has not been
+	 *         completely built yet.
+	 */
+	JSONObject getResult() {
+		return this.result;
+	}
+
+	/**
+	 * Returns whether the outermost container has been completely built.
+	 * 
+	 * @return <code>true</code> if there are no open containers.
+	 */
+	boolean isDone() {
+		return this.stack.isEmpty();
+	}
+
+	@Override
+	public void startObject() {
+		this.stack.push(attach(new JSONObject()));
+	}
+
+	@Override
+	public void endObject() {
+		end();
+	}
+
+	@Override
+	public void startArray() {
+		this.stack.push(attach(new JSONArray()));
+	}
+
+	@Override
+	public void endArray() {
+		end();
+	}
+
+	@Override
+	public void key(String key) {
+		this.key = key;
+	}
+
+	@Override
+	public void value(Object value) {
+		if (value == null) {
+			value = JSONNull.getInstance();
+		} else if (value instanceof String && mayBeParsed((String) value)) {
+			// Same as json-lib: prevents the string from being parsed
+			value = JSONUtils.DOUBLE_QUOTE + value + JSONUtils.DOUBLE_QUOTE;
+		}
+		add(value);
+	}
+
+	/**
+	 * Returns whether json-lib would convert the string into an object, array
+	 * or function when adding it.
+	 */
+	private static boolean mayBeParsed(String value) {
+		return JSONUtils.mayBeJSON(value)
+				|| (value.startsWith("function") && JSONUtils.isFunction(value));
+	}
+
+	private void end() {
+		Object container = this.stack.pop();
+		if (this.stack.isEmpty() && container instanceof JSONObject) {
+			this.result = (JSONObject) container;
+		}
+	}
+
+	private Object attach(Object container) {
+		if (this.stack.isEmpty()) {
+			return container;
+		}
+
+		Object parent = this.stack.peek();
+		if (parent instanceof JSONArray) {
+			JSONArray array = (JSONArray) parent;
+			array.element(container);
+			return array.get(array.size() - 1);
+		}
+
+		JSONObject obj = (JSONObject) parent;
+		if (obj.containsKey(this.key)) {
+			// Duplicated keys are accumulated into an array
+			obj.accumulate(this.key, container);
+			JSONArray accumulated = obj.getJSONArray(this.key);
+			return accumulated.get(accumulated.size() - 1);
+		}
+		obj.element(this.key, container);
+		return obj.get(this.key);
+	}
+
+	private void add(Object value) {
+		Object parent = this.stack.peek();
+		if (parent instanceof JSONArray) {
+			((JSONArray) parent).element(value);
+		} else {
+			JSONObject obj = (JSONObject) parent;
+			if (obj.containsKey(this.key)) {
+				obj.accumulate(this.key, value);
+			} else {
+				obj.element(this.key, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Parses JSON text into {@link JSONObject} instances. Implementations must be
+ * thread-safe so a single parser can be shared between components.
+ */
+public interface JSONParser {
+	/**
+	 * Parses the given JSON text.
+	 * 
+	 * @param json
+	 *            The JSON text. It must contain a single JSON object.
+	 * @return The parsed object.
+	 * @throws JSONException
+	 *             if the text is not a valid JSON object.
+	 */
+	JSONObject parse(String json) throws JSONException;
+
+	/**
+	 * Parses the JSON text read from the given reader. The reader is not
+	 * closed.
+	 * 
+	 * @param reader
+	 *            The reader providing the JSON text. It must contain a single
+	 *            JSON object.
+	 * @return The parsed object.
+	 * @throws IOException
+	 *             if the reader cannot be read.
+	 * @throws JSONException
+	 *             if the text is not a valid JSON object.
+	 */
+	JSONObject parse(Reader reader) throws IOException, JSONException;
+}
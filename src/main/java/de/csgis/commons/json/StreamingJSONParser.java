@@ -0,0 +1,407 @@
+package de.csgis.commons.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * {@link JSONParser} reading the JSON text in a single pass with a hand-written
+ * tokenizer.
+ *
+ * It accepts the same relaxed syntax as json-lib (single quoted strings,
+ * unquoted keys, <code>=</code> and <code>=&gt;</code> after keys, trailing
+ * commas, elided array elements, comments and json-lib's rules for unquoted
+ * values, such as octal and hexadecimal numbers) but it does not use json-lib's
+ * tokenizer and it does not copy nested objects while building the result.
+ * String values are always kept as strings; json-lib functions are not
+ * supported. Like json-lib, strings that look like functions keep their
+ * quotes when building a {@link JSONObject}.
+ *
+ * Callers that do not need a {@link JSONObject} can use
+ * {@link #parse(Reader, JSONHandler)} to receive the parsing events directly,
+ * without creating any json-lib object. Numbers are then converted without
+ * json-lib's rules, which read most decimals as floats.
+ */
+public class StreamingJSONParser implements JSONParser {
+	@Override
+	public JSONObject parse(String json) throws JSONException {
+		try {
+			return parse(new StringReader(json));
+		} catch (IOException e) {
+			// Never thrown by StringReader
+			throw new JSONException(e);
+		}
+	}
+
+	@Override
+	public JSONObject parse(Reader reader) throws IOException, JSONException {
+		JSONObjectBuilder builder = new JSONObjectBuilder();
+		new Tokenizer(reader, builder, true).parseDocument(true);
+		return builder.getResult();
+	}
+
+	/**
+	 * Parses the JSON text read from the given reader, notifying the given
+	 * handler about each element. The reader is not closed.
+	 *
+	 * Numbers are notified as {@link Integer}, {@link Long} or
+	 * {@link BigInteger} for integers and as {@link Double} for decimals
+	 * ({@link BigDecimal} if they do not fit in a double).
+	 *
+	 * @param reader
+	 *            The reader providing the JSON text. It must contain a single
+	 *            JSON object or array.
+	 * @param handler
+	 *            The handler to notify.
+	 * @throws IOException
+	 *             if the reader cannot be read.
+	 * @throws JSONException
+	 *             if the text is not valid JSON.
+	 */
+	public void parse(Reader reader, JSONHandler handler) throws IOException,
+			JSONException {
+		new Tokenizer(reader, handler, false).parseDocument(false);
+	}
+
+	private static class Tokenizer {
+		private static final int BUFFER_SIZE = 8192;
+
+		private Reader reader;
+		private JSONHandler handler;
+		private boolean jsonLibNumbers;
+		private char[] buffer = new char[BUFFER_SIZE];
+		private int pos, limit;
+		private long offset;
+		private StringBuilder text = new StringBuilder();
+
+		private Tokenizer(Reader reader, JSONHandler handler,
+				boolean jsonLibNumbers) {
+			this.reader = reader;
+			this.handler = handler;
+			this.jsonLibNumbers = jsonLibNumbers;
+		}
+
+		private void parseDocument(boolean objectOnly) throws IOException {
+			int c = nextClean();
+			if (c == '{') {
+				parseObject();
+			} else if (c == '[' && !objectOnly) {
+				parseArray();
+			} else {
+				throw error(objectOnly ? "A JSONObject text must begin with '{'"
+						: "A JSON text must begin with '{' or '['");
+			}
+
+			if (nextClean() != -1) {
+				throw error("Unexpected content after the end of the JSON text");
+			}
+		}
+
+		private void parseObject() throws IOException {
+			this.handler.startObject();
+			int c = nextClean();
+			while (c != '}') {
+				if (c == -1) {
+					throw error("A JSONObject text must end with '}'");
+				}
+				this.handler.key(parseKey(c));
+				c = nextClean();
+				if (c == '=') {
+					// json-lib also accepts = and =>
+					int n = next();
+					if (n != '>') {
+						back(n);
+					}
+				} else if (c != ':') {
+					throw error("Expected a ':' after a key");
+				}
+				parseValue(nextClean());
+
+				c = nextClean();
+				if (c == ',' || c == ';') {
+					c = nextClean();
+				} else if (c != '}') {
+					throw error("Expected a ',' or '}'");
+				}
+			}
+			this.handler.endObject();
+		}
+
+		private void parseArray() throws IOException {
+			this.handler.startArray();
+			int c = nextClean();
+			while (c != ']') {
+				if (c == -1) {
+					throw error("A JSONArray text must end with ']'");
+				} else if (c == ',') {
+					// Elided element, such as [1,,2]; null like json-lib
+					this.handler.value(null);
+					c = nextClean();
+					continue;
+				}
+				parseValue(c);
+
+				c = nextClean();
+				if (c == ',' || c == ';') {
+					c = nextClean();
+				} else if (c != ']') {
+					throw error("Expected a ',' or ']'");
+				}
+			}
+			this.handler.endArray();
+		}
+
+		private String parseKey(int c) throws IOException {
+			if (c == '"' || c == '\'') {
+				return parseString((char) c);
+			}
+			// Same as json-lib: unquoted keys are read as values, so TRUE or
+			// 0x10 are converted to "true" and "16"
+			return String.valueOf(parseLiteral(c));
+		}
+
+		private void parseValue(int c) throws IOException {
+			switch (c) {
+			case '{':
+				parseObject();
+				break;
+			case '[':
+				parseArray();
+				break;
+			case '"':
+			case '\'':
+				this.handler.value(parseString((char) c));
+				break;
+			default:
+				this.handler.value(parseLiteral(c));
+			}
+		}
+
+		private String parseString(char quote) throws IOException {
+			this.text.setLength(0);
+			while (true) {
+				// Fast path: copy unescaped runs directly from the buffer
+				int start = this.pos;
+				while (this.pos < this.limit) {
+					char ch = this.buffer[this.pos];
+					if (ch == quote || ch == '\\' || ch == '\n' || ch == '\r') {
+						break;
+					}
+					this.pos++;
+				}
+				this.text.append(this.buffer, start, this.pos - start);
+
+				int c = next();
+				if (c == quote) {
+					return this.text.toString();
+				} else if (c == '\\') {
+					this.text.append(parseEscape());
+				} else if (c == -1 || c == '\n' || c == '\r') {
+					throw error("Unterminated string");
+				} else {
+					// First char after refilling the buffer
+					this.text.append((char) c);
+				}
+			}
+		}
+
+		private char parseEscape() throws IOException {
+			int c = next();
+			switch (c) {
+			case 'b':
+				return '\b';
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'f':
+				return '\f';
+			case 'r':
+				return '\r';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(next(), 16);
+					if (digit < 0) {
+						throw error("Illegal escape");
+					}
+					value = (value << 4) + digit;
+				}
+				return (char) value;
+			case -1:
+				throw error("Unterminated string");
+			default:
+				return (char) c;
+			}
+		}
+
+		/**
+		 * Parses an unquoted value, following the same rules as json-lib's
+		 * tokenizer.
+		 */
+		private Object parseLiteral(int c) throws IOException {
+			char first = (char) c;
+			this.text.setLength(0);
+			while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+				this.text.append((char) c);
+				c = next();
+			}
+			back(c);
+
+			String literal = this.text.toString().trim();
+			if (literal.isEmpty()) {
+				throw error("Missing value");
+			} else if (literal.equalsIgnoreCase("true")) {
+				return Boolean.TRUE;
+			} else if (literal.equalsIgnoreCase("false")) {
+				return Boolean.FALSE;
+			} else if (literal.equals("null")) {
+				return null;
+			}
+
+			if ((first >= '0' && first <= '9') || first == '.'
+					|| first == '-' || first == '+') {
+				if (isSimpleInteger(literal)) {
+					// Fast path for the most common case
+					return Integer.valueOf(literal);
+				}
+				return this.jsonLibNumbers ? JSONObjectBuilder
+						.toNumber(literal) : parseNumber(literal);
+			} else if (c == -1 || ",[]{}".indexOf(c) >= 0) {
+				throw error("Unquoted string '" + literal + "'");
+			}
+			return literal;
+		}
+
+		/**
+		 * Converts the literal to a number, keeping json-lib's octal and
+		 * hexadecimal integers. Literals that are not numbers are returned as
+		 * strings, like json-lib does.
+		 */
+		private Object parseNumber(String literal) {
+			char sign = literal.charAt(0);
+			String digits = sign == '-' || sign == '+' ? literal.substring(1)
+					: literal;
+			try {
+				if (digits.startsWith("0x") || digits.startsWith("0X")) {
+					return integer(sign, digits.substring(2), 16);
+				} else if (digits.indexOf('.') >= 0 || digits.indexOf('e') >= 0
+						|| digits.indexOf('E') >= 0) {
+					// Validated first; Double accepts suffixes such as 1d
+					BigDecimal decimal = new BigDecimal(literal);
+					double value = Double.parseDouble(literal);
+					return Double.isInfinite(value) ? decimal : Double
+							.valueOf(value);
+				} else if (digits.length() > 1 && digits.charAt(0) == '0') {
+					try {
+						return integer(sign, digits, 8);
+					} catch (NumberFormatException e) {
+						// Not octal, such as 09
+					}
+				}
+				return integer(sign, digits, 10);
+			} catch (NumberFormatException e) {
+				return literal;
+			}
+		}
+
+		private static Number integer(char sign, String digits, int radix) {
+			// BigInteger accepts a sign
+			if (digits.isEmpty()
+					|| Character.digit(digits.charAt(0), radix) < 0) {
+				throw new NumberFormatException(digits);
+			}
+			BigInteger value = new BigInteger(digits, radix);
+			if (sign == '-') {
+				value = value.negate();
+			}
+
+			if (value.bitLength() < 32) {
+				return Integer.valueOf(value.intValue());
+			} else if (value.bitLength() < 64) {
+				return Long.valueOf(value.longValue());
+			}
+			return value;
+		}
+
+		private boolean isSimpleInteger(String literal) {
+			int start = literal.charAt(0) == '-' ? 1 : 0;
+			int length = literal.length() - start;
+			if (length < 1 || length > 9 || literal.charAt(start) == '0') {
+				return false;
+			}
+			for (int i = start; i < literal.length(); i++) {
+				char ch = literal.charAt(i);
+				if (ch < '0' || ch > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the next character that is not whitespace nor part of a
+		 * comment, or -1 at the end of the input.
+		 */
+		private int nextClean() throws IOException {
+			while (true) {
+				int c = next();
+				if (c == '/') {
+					int n = next();
+					if (n == '/') {
+						do {
+							c = next();
+						} while (c != '\n' && c != '\r' && c != -1);
+					} else if (n == '*') {
+						int prev = 0;
+						while (true) {
+							c = next();
+							if (c == -1) {
+								throw error("Unclosed comment");
+							} else if (prev == '*' && c == '/') {
+								break;
+							}
+							prev = c;
+						}
+					} else {
+						back(n);
+						return c;
+					}
+				} else if (c == -1 || c > ' ') {
+					return c;
+				}
+			}
+		}
+
+		private int next() throws IOException {
+			if (this.pos == this.limit) {
+				this.offset += this.limit;
+				this.limit = this.reader.read(this.buffer, 0,
+						this.buffer.length);
+				this.pos = 0;
+				if (this.limit <= 0) {
+					this.limit = 0;
+					return -1;
+				}
+			}
+			return this.buffer[this.pos++];
+		}
+
+		private void back(int c) {
+			// Only called right after next(), so the char is still buffered
+			if (c != -1) {
+				this.pos--;
+			}
+		}
+
+		private JSONException error(String message) {
+			return new JSONException(message + " at character "
+					+ (this.offset + this.pos));
+		}
+	}
+}
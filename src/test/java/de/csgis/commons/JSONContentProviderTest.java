@@ -2,12 +2,19 @@ package de.csgis.commons;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.json.JSONObject;
 
@@ -118,6 +125,143 @@ public class JSONContentProviderTest {
 		assertEquals(0, this.provider.get().size());
 	}
 
+	@Test
+	public void getPath() throws Exception {
+		createFile("a.json", "{map : {layers : [{url : 'http://a'}]}}");
+		JSONPath path = JSONPath.compile("map.layers[0].url");
+		assertEquals("http://a", this.provider.get("a", path));
+		assertEquals("http://a", this.provider.get("a", path));
+		assertNull(this.provider.get("a", JSONPath.compile("map.zoom")));
+		assertNull(this.provider.get("b", path));
+
+		// Last modified only takes seconds into account, not millis. We wait
+		// for at least one second.
+		Thread.sleep(1000);
+		createFile("a.json", "{map : {layers : [{url : 'http://b'}]}}");
+		createFile("b.json", "{map : {layers : [{url : 'http://c'}]}}");
+		this.provider.refresh();
+		assertEquals("http://b", this.provider.get("a", path));
+		assertEquals("http://c", this.provider.get("b", path));
+
+		new File(this.dir, "a.json").delete();
+		this.provider.refresh();
+		assertNull(this.provider.get("a", path));
+	}
+
+	@Test
+	public void getPathChecksDirectoryPeriodically() throws Exception {
+		this.provider.setCheckInterval(60000);
+		createFile("a.json", "{a : 1}");
+		JSONPath path = JSONPath.compile("a");
+		assertEquals(1, this.provider.get("a", path));
+
+		// Not checked again until the interval elapses
+		Thread.sleep(1000);
+		createFile("a.json", "{a : 2}");
+		assertEquals(1, this.provider.get("a", path));
+
+		this.provider.setCheckInterval(0);
+		assertEquals(2, this.provider.get("a", path));
+	}
+
+	@Test
+	public void notifiesListeners() throws Exception {
+		final List<JSONContentEvent> events = new ArrayList<JSONContentEvent>();
+		this.provider.setListenerExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		this.provider.addListener(new JSONContentListener() {
+			@Override
+			public void contentChanged(JSONContentEvent event) {
+				events.add(event);
+			}
+		});
+
+		createFile("a.json", "{a1 : 1, a2 : {b : 2}}");
+		this.provider.refresh();
+		assertEquals(1, events.size());
+		assertEquals(JSONContentEvent.Type.ADDED, events.get(0).getType());
+		assertEquals("a", events.get(0).getName());
+
+		// Last modified only takes seconds into account, not millis. We wait
+		// for at least one second.
+		Thread.sleep(1000);
+		createFile("a.json", "{a1 : 1, a2 : {b : 3}}");
+		this.provider.get();
+		assertEquals(2, events.size());
+		JSONContentEvent modified = events.get(1);
+		assertEquals(JSONContentEvent.Type.MODIFIED, modified.getType());
+		assertEquals(Arrays.asList(JSONPath.compile("/a2/b")),
+				modified.getChanges());
+		assertEquals(2, modified.getOldContent().getJSONObject("a2")
+				.getInt("b"));
+
+		// Same contents, no event
+		Thread.sleep(1000);
+		createFile("a.json", "{a1 : 1, a2 : {b : 3}}");
+		this.provider.refresh();
+		assertEquals(2, events.size());
+
+		new File(this.dir, "a.json").delete();
+		this.provider.refresh();
+		assertEquals(3, events.size());
+		assertEquals(JSONContentEvent.Type.REMOVED, events.get(2).getType());
+		assertNull(events.get(2).getNewContent());
+	}
+
+	@Test
+	public void notifiesListenersAddedLater() throws Exception {
+		// Changes detected without listeners are not notified afterwards
+		createFile("a.json", "{a : 1}");
+		this.provider.refresh();
+
+		final List<JSONContentEvent> events = new ArrayList<JSONContentEvent>();
+		this.provider.setListenerExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		this.provider.addListener(new JSONContentListener() {
+			@Override
+			public void contentChanged(JSONContentEvent event) {
+				events.add(event);
+			}
+		});
+		this.provider.refresh();
+		assertEquals(0, events.size());
+
+		// Last modified only takes seconds into account, not millis. We wait
+		// for at least one second.
+		Thread.sleep(1000);
+		createFile("a.json", "{a : 2}");
+		this.provider.refresh();
+		assertEquals(1, events.size());
+		assertEquals(JSONContentEvent.Type.MODIFIED, events.get(0).getType());
+		assertEquals(1, events.get(0).getOldContent().getInt("a"));
+	}
+
+	@Test
+	public void notifiesListenersInBackground() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Thread caller = Thread.currentThread();
+		this.provider.addListener(new JSONContentListener() {
+			@Override
+			public void contentChanged(JSONContentEvent event) {
+				if (Thread.currentThread() != caller) {
+					latch.countDown();
+				}
+			}
+		});
+
+		createFile("a.json", "{}");
+		this.provider.refresh();
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+	}
+
 	private void createFile(String name, String content) throws IOException {
 		File file = new File(this.dir, name);
 		FileWriter writer = new FileWriter(file);
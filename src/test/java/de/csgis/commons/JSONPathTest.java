@@ -0,0 +1,65 @@
+package de.csgis.commons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+public class JSONPathTest {
+	private JSONObject obj = JSONObject.fromObject("{map : {layers : ["
+			+ "{id : 'a', url : 'http://a'}, {id : 'b', url : null}]},"
+			+ "'a/b' : {'c~d' : 1}, '0' : 'zero'}");
+
+	@Test
+	public void dottedPaths() {
+		assertEquals("http://a",
+				JSONPath.compile("map.layers[0].url").resolve(obj));
+		assertEquals("b", JSONPath.compile("map.layers[1].id").resolve(obj));
+		assertEquals(2, ((JSONArray) JSONPath
+				.compile("map.layers").resolve(obj)).size());
+		assertSame(obj, JSONPath.compile("").resolve(obj));
+	}
+
+	@Test
+	public void pointers() {
+		assertEquals("http://a",
+				JSONPath.compile("/map/layers/0/url").resolve(obj));
+		assertEquals(1, JSONPath.compile("/a~1b/c~0d").resolve(obj));
+		assertEquals("zero", JSONPath.compile("/0").resolve(obj));
+	}
+
+	@Test
+	public void missingValues() {
+		assertNull(JSONPath.compile("map.layers[2].url").resolve(obj));
+		assertNull(JSONPath.compile("map.other").resolve(obj));
+		assertNull(JSONPath.compile("map.layers.id").resolve(obj));
+		assertNull(JSONPath.compile("map[0]").resolve(obj));
+		assertEquals(JSONNull.getInstance(),
+				JSONPath.compile("map.layers[1].url").resolve(obj));
+	}
+
+	@Test
+	public void invalidPaths() {
+		String[] invalid = new String[]{"a..b", "a.", ".a", "a[", "a[x]",
+				"a[-1]"};
+		for (String path : invalid) {
+			try {
+				JSONPath.compile(path);
+				fail(path);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void equality() {
+		assertEquals(JSONPath.compile("a.b[0]"), JSONPath.compile("a.b[0]"));
+		assertEquals(JSONPath.compile("a.b[0]").hashCode(),
+				JSONPath.compile("a.b[0]").hashCode());
+	}
+}
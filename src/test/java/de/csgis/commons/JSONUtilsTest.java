@@ -1,12 +1,18 @@
 package de.csgis.commons;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.junit.Test;
 
 import de.csgis.commons.JSONUtils;
+import de.csgis.commons.json.StreamingJSONParser;
 
 public class JSONUtilsTest {
 	@Test
@@ -83,4 +89,62 @@ public class JSONUtilsTest {
 		JSONObject merged = JSONUtils.merge(defaultObj, null);
 		assertEquals(defaultObj, merged);
 	}
+
+	@Test
+	public void mergeDoesNotModifyDefaultObject() {
+		JSONObject defaultObj = JSONObject.fromObject("{a : {b : [{c : 1}]}}");
+		JSONObject merged = JSONUtils.merge(defaultObj, null);
+		merged.getJSONObject("a").getJSONArray("b").getJSONObject(0)
+				.element("c", 2);
+		assertEquals(1, defaultObj.getJSONObject("a").getJSONArray("b")
+				.getJSONObject(0).getInt("c"));
+	}
+
+	@Test
+	public void mergeKeepsJSONLikeStrings() {
+		// json-lib's own parser turns these strings into objects and arrays
+		JSONObject defaultObj = new StreamingJSONParser()
+				.parse("{a : '[1,2]', b : '{\\\"x\\\":1}', "
+						+ "c : {d : ['[3]', '{}']}}");
+		JSONObject merged = JSONUtils.merge(defaultObj, null);
+
+		assertEquals(defaultObj, merged);
+		assertEquals("[1,2]", merged.get("a"));
+		assertEquals("{\"x\":1}", merged.get("b"));
+		JSONArray d = merged.getJSONObject("c").getJSONArray("d");
+		assertEquals("[3]", d.get(0));
+		assertEquals("{}", d.get(1));
+	}
+
+	@Test
+	public void mergeKeepsJSONLikeOverrides() {
+		JSONObject defaultObj = JSONObject.fromObject("{a : 1, b : {c : 2}}");
+		JSONObject overrides = new StreamingJSONParser()
+				.parse("{a : '[1,2]', b : {c : '{}'}, d : ['[3]']}");
+		JSONObject merged = JSONUtils.merge(defaultObj, overrides);
+
+		assertEquals("[1,2]", merged.get("a"));
+		assertEquals("{}", merged.getJSONObject("b").get("c"));
+		assertEquals("[3]", merged.getJSONArray("d").get(0));
+	}
+
+	@Test
+	public void diff() {
+		JSONObject oldObj = JSONObject.fromObject("{a : 1, b : {c : 'x', "
+				+ "d : [1, 2], e : [1], 'f/g' : true}, h : null}");
+		JSONObject newObj = JSONObject.fromObject("{a : 1, b : {c : 'y', "
+				+ "d : [1, 3], e : [1, 2]}, h : null, i : {}}");
+		List<JSONPath> changes = JSONUtils.diff(oldObj, newObj);
+		assertEquals(Arrays.asList(JSONPath.compile("/b/c"),
+				JSONPath.compile("/b/d/1"), JSONPath.compile("/b/e"),
+				JSONPath.compile("/b/f~1g"), JSONPath.compile("/i")), changes);
+		assertEquals("y", changes.get(0).resolve(newObj));
+		assertTrue(changes.get(3).resolve(oldObj) instanceof Boolean);
+	}
+
+	@Test
+	public void diffEqualObjects() {
+		JSONObject obj = JSONObject.fromObject("{a : 1, b : {c : [1, 2]}}");
+		assertTrue(JSONUtils.diff(obj, JSONUtils.merge(obj, null)).isEmpty());
+	}
 }
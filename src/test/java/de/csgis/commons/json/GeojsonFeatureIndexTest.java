@@ -0,0 +1,199 @@
+package de.csgis.commons.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class GeojsonFeatureIndexTest {
+	private static final String ID_COLUMN = "gid";
+
+	private GeojsonFeatureIndex index;
+
+	@Before
+	public void setup() {
+		this.index = new GeojsonFeatureIndex(ID_COLUMN);
+	}
+
+	@Test
+	public void detectsChanges() throws Exception {
+		JSONObject feature = point(1, "a", 10, 10);
+		assertTrue(this.index.hasChanged(feature));
+		assertTrue(this.index.put(feature));
+		assertFalse(this.index.hasChanged(point(1, "a", 10, 10)));
+		assertFalse(this.index.put(point(1, "a", 10, 10)));
+
+		assertTrue(this.index.hasChanged(point(1, "b", 10, 10)));
+		assertTrue(this.index.hasChanged(point(1, "a", 10, 11)));
+		assertTrue(this.index.hasChanged(point(2, "a", 10, 10)));
+		assertEquals(1, this.index.size());
+	}
+
+	@Test
+	public void ignoresPropertyOrder() throws Exception {
+		this.index.put(JSONObject.fromObject("{properties:{gid:1,a:1,b:2},"
+				+ "geometry:{type:'Point',coordinates:[1,2]}}"));
+		assertFalse(this.index.hasChanged(JSONObject
+				.fromObject("{properties:{b:2,a:1.0,gid:1},"
+						+ "geometry:{type:'Point',coordinates:[1,2]}}")));
+	}
+
+	@Test
+	public void numericIds() throws Exception {
+		this.index.put(point(1, "a", 0, 0));
+		assertTrue(this.index.contains(1));
+		assertTrue(this.index.contains(1L));
+		assertFalse(this.index.contains("1"));
+	}
+
+	@Test
+	public void missingId() throws Exception {
+		JSONObject feature = JSONObject.fromObject("{properties:{a:1}}");
+		assertTrue(this.index.hasChanged(feature));
+		try {
+			this.index.put(feature);
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void removesFeatures() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			this.index.put(point(i, "f" + i, i, i));
+		}
+		for (int i = 0; i < 1000; i += 2) {
+			assertTrue(this.index.remove(i));
+		}
+		assertFalse(this.index.remove(0));
+		assertEquals(500, this.index.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i % 2 == 1, this.index.contains(i));
+		}
+		assertFalse(this.index.hasChanged(point(999, "f999", 999, 999)));
+	}
+
+	@Test
+	public void queriesBoundingBox() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			this.index.put(point(i, "f" + i, i, i));
+		}
+		this.index.put(JSONObject.fromObject("{properties:{gid:'line'},"
+				+ "geometry:{type:'LineString',coordinates:[[0,50],[100,50]]}}"));
+		this.index.put(JSONObject.fromObject("{properties:{gid:'nogeom'}}"));
+
+		List<Object> ids = this.index.query(new Envelope(9.5, 12.5, 9.5, 12.5));
+		assertEquals(new HashSet<Object>(Arrays.<Object> asList(10L,
+				11L, 12L)), new HashSet<Object>(ids));
+
+		this.index.remove(11);
+		ids = this.index.query(new Envelope(40, 60, 45, 55));
+		assertEquals(new HashSet<Object>(Arrays.<Object> asList(
+				"line", 45L, 46L, 47L, 48L, 49L, 50L, 51L, 52L, 53L, 54L, 55L)),
+				new HashSet<Object>(ids));
+	}
+
+	@Test
+	public void queriesWhileEditing() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			this.index.put(point(i, "f" + i, i, i));
+		}
+		Envelope bbox = new Envelope(100, 199.5, 0, 1000);
+		assertEquals(100, this.index.query(bbox).size());
+
+		// Few changes (checked linearly) and then many (tree built again)
+		for (int n : new int[]{10, 500}) {
+			for (int i = 0; i < n; i++) {
+				this.index.remove(100 + i);
+				this.index.put(point("moved" + i, "m", 150, 150));
+				this.index.put(point(i, "f" + i, i + 1000, i));
+			}
+
+			Set<Object> expected = new HashSet<Object>();
+			for (int i = Math.max(100, n + 100); i < 200; i++) {
+				expected.add((long) i);
+			}
+			for (int i = 0; i < n; i++) {
+				expected.add("moved" + i);
+			}
+			assertEquals(expected, new HashSet<Object>(this.index.query(bbox)));
+			assertEquals(expected.size(), this.index.query(bbox).size());
+		}
+	}
+
+	@Test
+	public void mixedIds() throws Exception {
+		this.index.put(point(1, "a", 0, 0));
+		this.index.put(point("1", "b", 0, 0));
+		this.index.put(point(1.5, "c", 0, 0));
+		assertEquals(3, this.index.size());
+		assertFalse(this.index.hasChanged(point(1L, "a", 0, 0)));
+		assertFalse(this.index.hasChanged(point("1", "b", 0, 0)));
+
+		assertTrue(this.index.remove(1));
+		assertTrue(this.index.contains("1"));
+		assertTrue(this.index.contains(1.5));
+		assertFalse(this.index.contains(1));
+	}
+
+	@Test
+	public void loadsSnapshot() throws Exception {
+		this.index.put(point(42, "old", 0, 0));
+		this.index.load(new StringReader("{type:'FeatureCollection',"
+				+ "bbox:[0,0,2,2], features:["
+				+ point(1, "a", 1, 1) + "," + point(2, "b", 2, 2) + "]}"));
+		assertEquals(2, this.index.size());
+		assertFalse(this.index.contains(42));
+		assertFalse(this.index.hasChanged(point(2, "b", 2, 2)));
+
+		this.index.load(new StringReader("[" + point(3, "c", 1, 1) + "]"));
+		assertEquals(1, this.index.size());
+		assertTrue(this.index.contains(3));
+	}
+
+	@Test
+	public void loadsSnapshotWithMembersAfterFeatures() throws Exception {
+		this.index.load(new StringReader("{type:'FeatureCollection',"
+				+ "features:[" + point(1, "a", 1, 1) + "],"
+				+ "crs:{type:'name',properties:{name:'EPSG:4326'}}}"));
+		assertEquals(1, this.index.size());
+		assertTrue(this.index.contains(1));
+	}
+
+	@Test
+	public void invalidSnapshot() throws Exception {
+		try {
+			this.index.load(new StringReader("{features:[{properties:{}}]}"));
+			fail();
+		} catch (JSONException e) {
+		}
+	}
+
+	private JSONObject point(Object id, String name, double x, double y) {
+		JSONObject properties = new JSONObject();
+		properties.element(ID_COLUMN, id);
+		properties.element("name", name);
+
+		JSONObject feature = new JSONObject();
+		feature.element("type", "Feature");
+		feature.element("properties", properties);
+		feature.element("geometry", JSONObject
+				.fromObject("{type:'Point',coordinates:[" + x + "," + y + "]}"));
+		return feature;
+	}
+}
@@ -0,0 +1,27 @@
+package de.csgis.commons.json;
+
+import net.sf.json.JSONObject;
+
+/**
+ * GeoJSON features shared by the tests.
+ */
+final class GeojsonFixtures {
+	private GeojsonFixtures() {
+	}
+
+	/**
+	 * Creates a point feature with the given id and <code>name</code>
+	 * property.
+	 */
+	static JSONObject feature(String idColumn, int id, String name) {
+		JSONObject properties = new JSONObject();
+		properties.element(idColumn, id);
+		properties.element("name", name);
+
+		JSONObject geojson = new JSONObject();
+		geojson.element("properties", properties);
+		geojson.element("geometry",
+				JSONObject.fromObject("{type:'Point',coordinates:[1,2]}"));
+		return geojson;
+	}
+}
@@ -1,8 +1,11 @@
 package de.csgis.commons.json;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -11,6 +14,7 @@ import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Calendar;
 
 import javax.xml.bind.DatatypeConverter;
@@ -72,6 +76,7 @@ public class GeojsonPGHelperTest {
 			fail();
 		} catch (IOException e) {
 		}
+		verify(st).close();
 	}
 
 	@Test
@@ -90,6 +95,7 @@ public class GeojsonPGHelperTest {
 		verify(st).setObject(3, 42);
 		verify(st).setInt(5, SRID);
 		verify(st).executeUpdate();
+		verify(st).close();
 	}
 
 	@Test
@@ -156,6 +162,7 @@ public class GeojsonPGHelperTest {
 		verify(st).setInt(5, SRID);
 		verify(st).setObject(6, 1);
 		verify(st).executeUpdate();
+		verify(st).close();
 	}
 
 	@Test
@@ -201,6 +208,89 @@ public class GeojsonPGHelperTest {
 
 		verify(st).setObject(1, 1);
 		verify(st).executeUpdate();
+		verify(st).close();
+	}
+
+	@Test
+	public void preprocessGeometry() throws Exception {
+		PreparedStatement st = mock(PreparedStatement.class);
+		when(conn.prepareStatement(anyString())).thenReturn(st);
+
+		JSONObject geojson = geojson(new String[]{ID_COLUMN},
+				new Object[]{1}, this.gf.createPoint(new Coordinate(
+						10.123456789012345, 20.456789012345678)));
+
+		this.helper.setPreprocessor(new GeometryPreprocessor(1000, 0, false));
+		this.helper.insert(geojson);
+
+		verify(st).setObject(1, 1);
+		verify(st).setString(2, "POINT (10.123 20.457)");
+		verify(st).setInt(3, SRID);
+		verify(st).executeUpdate();
+	}
+
+	@Test
+	public void skipsUnchangedUpdates() throws Exception {
+		PreparedStatement st = mock(PreparedStatement.class);
+		when(conn.prepareStatement(anyString())).thenReturn(st);
+
+		GeojsonFeatureIndex index = new GeojsonFeatureIndex(ID_COLUMN);
+		this.helper.setIndex(index);
+
+		JSONObject geojson = geojson(new String[]{ID_COLUMN, "f1"},
+				new Object[]{1, "name"},
+				this.gf.createPoint(new Coordinate(10, 10)));
+		this.helper.insert(geojson);
+		this.helper.update(geojson);
+		verify(st, times(1)).executeUpdate();
+
+		geojson.getJSONObject("properties").element("f1", "other");
+		this.helper.update(geojson);
+		verify(st, times(2)).executeUpdate();
+
+		this.helper.delete(geojson);
+		assertFalse(index.contains(1));
+	}
+
+	@Test
+	public void insertsWithoutIdWhenIndexed() throws Exception {
+		PreparedStatement st = mock(PreparedStatement.class);
+		when(conn.prepareStatement(anyString())).thenReturn(st);
+
+		GeojsonFeatureIndex index = new GeojsonFeatureIndex(ID_COLUMN);
+		this.helper.setIndex(index);
+
+		// Id generated by the database
+		JSONObject geojson = geojson(new String[]{"f1"},
+				new Object[]{"name"},
+				this.gf.createPoint(new Coordinate(10, 10)));
+		this.helper.insert(geojson);
+		this.helper.insert(Arrays.asList(geojson));
+		verify(st).executeUpdate();
+		verify(st).executeBatch();
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void removesFailedUpdatesFromIndex() throws Exception {
+		PreparedStatement st = mock(PreparedStatement.class);
+		when(conn.prepareStatement(anyString())).thenReturn(st);
+		when(st.executeUpdate()).thenReturn(1).thenThrow(new SQLException());
+
+		GeojsonFeatureIndex index = new GeojsonFeatureIndex(ID_COLUMN);
+		this.helper.setIndex(index);
+
+		JSONObject geojson = geojson(new String[]{ID_COLUMN, "f1"},
+				new Object[]{1, "name"},
+				this.gf.createPoint(new Coordinate(10, 10)));
+		this.helper.insert(geojson);
+		geojson.getJSONObject("properties").element("f1", "other");
+		try {
+			this.helper.update(geojson);
+			fail();
+		} catch (SQLException e) {
+		}
+		assertFalse(index.contains(1));
 	}
 
 	@Test
@@ -0,0 +1,343 @@
+package de.csgis.commons.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class GeojsonPGWriteQueueTest {
+	private static final String ID_COLUMN = "gid";
+
+	private GeojsonPGHelper helper;
+	private Connection conn;
+	private GeojsonPGWriteQueue queue;
+
+	@Before
+	public void setup() throws Exception {
+		this.helper = mock(GeojsonPGHelper.class);
+		when(this.helper.getIdColumn()).thenReturn(ID_COLUMN);
+		when(this.helper.getTable()).thenReturn("points");
+		this.conn = mock(Connection.class);
+		when(this.conn.getAutoCommit()).thenReturn(true);
+	}
+
+	@After
+	public void teardown() throws Exception {
+		if (this.queue != null) {
+			this.queue.close();
+		}
+	}
+
+	@Test
+	public void writesBatchInOneTransaction() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 3, 60000);
+		Future<Void> f1 = this.queue.insert(geojson(1, "a"));
+		Future<Void> f2 = this.queue.update(geojson(2, "b"));
+		Future<Void> f3 = this.queue.delete(geojson(3, "c"));
+		f1.get(5, TimeUnit.SECONDS);
+		f2.get(5, TimeUnit.SECONDS);
+		f3.get(5, TimeUnit.SECONDS);
+
+		verify(helper).setConnection(conn);
+		verify(helper).insert(anyCollectionOf(JSONObject.class));
+		verify(helper).update(anyCollectionOf(JSONObject.class));
+		verify(helper).delete(anyCollectionOf(JSONObject.class));
+		verify(conn).setAutoCommit(false);
+		verify(conn, times(1)).commit();
+		verify(conn).setAutoCommit(true);
+	}
+
+	@Test
+	public void writesAfterMaxDelay() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 50);
+		this.queue.insert(geojson(1, "a")).get(5, TimeUnit.SECONDS);
+		verify(helper).insert(anyCollectionOf(JSONObject.class));
+	}
+
+	@Test
+	public void coalescesEditsForSameId() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		this.queue.insert(geojson(1, "a"));
+		JSONObject update = geojson(1, "b");
+		update.getJSONObject("properties").element("other", 42);
+		update.getJSONObject("properties").remove("name");
+		Future<Void> future = this.queue.update(update);
+		this.queue.flush();
+		assertTrue(future.isDone());
+
+		ArgumentCaptor<Collection> captor = ArgumentCaptor
+				.forClass(Collection.class);
+		verify(helper).insert(captor.capture());
+		verify(helper, never()).update(anyCollectionOf(JSONObject.class));
+		assertEquals(1, captor.getValue().size());
+		JSONObject properties = ((JSONObject) captor.getValue().iterator()
+				.next()).getJSONObject("properties");
+		assertEquals("a", properties.getString("name"));
+		assertEquals(42, properties.getInt("other"));
+	}
+
+	@Test
+	public void coalescingKeepsJSONLikeStrings() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		// Quoted so json-lib keeps them as strings
+		JSONObject first = geojson(1, "a");
+		first.getJSONObject("properties").element("tags", "\"[1,2]\"");
+		JSONObject second = geojson(1, "a");
+		second.getJSONObject("properties").element("meta", "\"{\"k\":1}\"");
+		this.queue.update(first);
+		this.queue.update(second);
+		this.queue.flush();
+
+		ArgumentCaptor<Collection> captor = ArgumentCaptor
+				.forClass(Collection.class);
+		verify(helper).update(captor.capture());
+		assertEquals(1, captor.getValue().size());
+		JSONObject properties = ((JSONObject) captor.getValue().iterator()
+				.next()).getJSONObject("properties");
+		assertEquals("[1,2]", properties.get("tags"));
+		assertEquals("{\"k\":1}", properties.get("meta"));
+	}
+
+	@Test
+	public void insertAndDeleteCancelEachOther() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		Future<Void> insert = this.queue.insert(geojson(1, "a"));
+		Future<Void> delete = this.queue.delete(geojson(1, "a"));
+		this.queue.flush();
+		insert.get();
+		delete.get();
+
+		verify(helper, never()).insert(anyCollectionOf(JSONObject.class));
+		verify(helper, never()).delete(anyCollectionOf(JSONObject.class));
+	}
+
+	@Test
+	public void keepsOrderForSameId() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		this.queue.delete(geojson(1, "a"));
+		this.queue.insert(geojson(1, "b"));
+		this.queue.flush();
+
+		InOrder order = inOrder(helper);
+		order.verify(helper).delete(anyCollectionOf(JSONObject.class));
+		order.verify(helper).insert(anyCollectionOf(JSONObject.class));
+	}
+
+	@Test
+	public void rollbackOnError() throws Exception {
+		SQLException exception = new SQLException();
+		doThrow(exception).when(helper).update(
+				anyCollectionOf(JSONObject.class));
+
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 2, 60000);
+		Future<Void> insert = this.queue.insert(geojson(1, "a"));
+		Future<Void> update = this.queue.update(geojson(2, "b"));
+
+		for (Future<Void> future : new Future[]{insert, update}) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertEquals(exception, e.getCause());
+			}
+		}
+		verify(conn).rollback();
+		verify(conn, never()).commit();
+	}
+
+	@Test
+	public void blocksWhenFull() throws Exception {
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				writing.countDown();
+				release.await();
+				return null;
+			}
+		}).when(helper).insert(anyCollectionOf(JSONObject.class));
+
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 1, 1, 0);
+		this.queue.insert(geojson(1, "a"));
+		writing.await(5, TimeUnit.SECONDS);
+		// Pending while the first one is being written
+		this.queue.insert(geojson(2, "b"));
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					queue.insert(geojson(3, "c"));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		producer.start();
+		producer.join(200);
+		assertTrue(producer.isAlive());
+
+		release.countDown();
+		producer.join(5000);
+		this.queue.flush();
+		verify(helper, times(3)).insert(anyCollectionOf(JSONObject.class));
+	}
+
+	@Test
+	public void cannotCancelEdits() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		Future<Void> future = this.queue.insert(geojson(1, "a"));
+		assertFalse(future.cancel(true));
+		assertFalse(future.isCancelled());
+
+		this.queue.flush();
+		assertTrue(future.isDone());
+		future.get();
+		verify(helper).insert(anyCollectionOf(JSONObject.class));
+	}
+
+	@Test
+	public void cannotAddAfterClose() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		this.queue.insert(geojson(1, "a"));
+		this.queue.close();
+		verify(helper).insert(anyCollectionOf(JSONObject.class));
+
+		try {
+			this.queue.insert(geojson(2, "b"));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void writesEditsOfSameTypeTogether() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		this.queue.insert(geojson(1, "a"));
+		this.queue.update(geojson(2, "b"));
+		this.queue.insert(geojson(3, "c"));
+		this.queue.update(geojson(4, "d"));
+		this.queue.flush();
+
+		ArgumentCaptor<Collection> inserts = ArgumentCaptor
+				.forClass(Collection.class);
+		ArgumentCaptor<Collection> updates = ArgumentCaptor
+				.forClass(Collection.class);
+		verify(helper).insert(inserts.capture());
+		verify(helper).update(updates.capture());
+		assertEquals(2, inserts.getValue().size());
+		assertEquals(2, updates.getValue().size());
+	}
+
+	@Test
+	public void stopsOnError() throws Exception {
+		Error error = new Error("test");
+		doThrow(error).when(helper).insert(anyCollectionOf(JSONObject.class));
+
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 1, 60000);
+		Future<Void> future = this.queue.insert(geojson(1, "a"));
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals(error, e.getCause());
+		}
+		verify(conn).rollback();
+
+		assertStopped();
+	}
+
+	@Test
+	public void stopsIfRollbackFails() throws Exception {
+		SQLException error = new SQLException();
+		doThrow(error).when(helper).insert(anyCollectionOf(JSONObject.class));
+		doThrow(new SQLException()).when(conn).rollback();
+
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 1, 60000);
+		Future<Void> future = this.queue.insert(geojson(1, "a"));
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals(error, e.getCause());
+		}
+
+		assertStopped();
+		// Restoring the auto-commit mode would commit the written edits
+		verify(conn, never()).setAutoCommit(true);
+		verify(conn, never()).commit();
+	}
+
+	@Test
+	public void stopsWhenInterrupted() throws Exception {
+		this.queue = new GeojsonPGWriteQueue(helper, conn, 10, 10, 60000);
+		Future<Void> future = this.queue.insert(geojson(1, "a"));
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("geojson-pg-write-queue-points")) {
+				thread.interrupt();
+			}
+		}
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		verify(helper, never()).insert(anyCollectionOf(JSONObject.class));
+
+		assertStopped();
+	}
+
+	private void assertStopped() throws Exception {
+		// The failure is set right after completing the futures
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true) {
+			try {
+				this.queue.insert(geojson(2, "b"));
+			} catch (IllegalStateException e) {
+				break;
+			}
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+
+		try {
+			this.queue.flush();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	private JSONObject geojson(int id, String name) {
+		return GeojsonFixtures.feature(ID_COLUMN, id, name);
+	}
+}
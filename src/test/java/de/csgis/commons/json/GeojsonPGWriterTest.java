@@ -0,0 +1,196 @@
+package de.csgis.commons.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class GeojsonPGWriterTest {
+	private static final String ID_COLUMN = "gid";
+	private static final int SRID = 4326;
+
+	private Connection conn;
+	private PreparedStatement st;
+	private GeojsonPGWriter writer;
+
+	@Before
+	public void setup() throws Exception {
+		this.conn = mock(Connection.class);
+		this.st = mock(PreparedStatement.class);
+		when(this.conn.getAutoCommit()).thenReturn(true);
+		when(this.conn.prepareStatement(anyString())).thenReturn(this.st);
+
+		this.writer = new GeojsonPGWriter();
+		this.writer.addLayer("parcels", new GeojsonPGHelper("parcels",
+				ID_COLUMN, "geom", SRID));
+		this.writer.addLayer("buildings", new GeojsonPGHelper("buildings",
+				ID_COLUMN, "geom", SRID));
+	}
+
+	@Test
+	public void writesAllLayersInOneTransaction() throws Exception {
+		this.writer.insert("parcels", geojson(1, "a"));
+		this.writer.insert("parcels", geojson(2, "b"));
+		this.writer.insert("buildings", geojson(1, "c"));
+		this.writer.update("buildings", geojson(2, "d"));
+		this.writer.write(this.conn);
+
+		InOrder order = inOrder(this.conn);
+		order.verify(this.conn).setAutoCommit(false);
+		order.verify(this.conn).prepareStatement(
+				startsWith("INSERT INTO parcels"));
+		order.verify(this.conn).prepareStatement(
+				startsWith("INSERT INTO buildings"));
+		order.verify(this.conn).prepareStatement(
+				startsWith("UPDATE buildings"));
+		order.verify(this.conn).commit();
+		order.verify(this.conn).setAutoCommit(true);
+
+		verify(this.st, times(4)).addBatch();
+		verify(this.st, times(3)).executeBatch();
+		verify(this.st, never()).executeUpdate();
+	}
+
+	@Test
+	public void deletesInReverseOrder() throws Exception {
+		this.writer.delete("parcels", geojson(1, "a"));
+		this.writer.delete("buildings", geojson(1, "a"));
+		this.writer.delete("buildings", geojson(2, "a"));
+		this.writer.write(this.conn);
+
+		InOrder order = inOrder(this.conn);
+		order.verify(this.conn).prepareStatement(
+				startsWith("DELETE FROM buildings"));
+		order.verify(this.conn).prepareStatement(
+				startsWith("DELETE FROM parcels"));
+		order.verify(this.conn).commit();
+		verify(this.st, times(2)).executeBatch();
+	}
+
+	@Test
+	public void rollbackOnError() throws Exception {
+		GeojsonFeatureIndex index = new GeojsonFeatureIndex(ID_COLUMN);
+		GeojsonPGHelper helper = new GeojsonPGHelper("roads", ID_COLUMN,
+				"geom", SRID);
+		helper.setIndex(index);
+		this.writer.addLayer("roads", helper);
+
+		when(this.st.executeBatch()).thenReturn(new int[]{1}).thenThrow(
+				new SQLException());
+		this.writer.insert("parcels", geojson(1, "a"));
+		this.writer.insert("roads", geojson(7, "b"));
+
+		try {
+			this.writer.write(this.conn);
+			fail();
+		} catch (SQLException e) {
+		}
+		verify(this.conn).rollback();
+		verify(this.conn, never()).commit();
+		verify(this.conn).setAutoCommit(true);
+		assertEquals(0, index.size());
+
+		// Edits are discarded
+		this.writer.write(this.conn);
+		verify(this.conn).commit();
+		verify(this.st, times(2)).executeBatch();
+	}
+
+	@Test
+	public void rejectsSeveralEditsForSameFeature() throws Exception {
+		this.writer.delete("parcels", geojson(1, "a"));
+		try {
+			this.writer.insert("parcels", geojson(1, "a"));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// Same id in another layer
+		this.writer.insert("buildings", geojson(1, "a"));
+
+		this.writer.write(this.conn);
+		// Accepted again after writing
+		this.writer.insert("parcels", geojson(1, "a"));
+	}
+
+	@Test
+	public void keepsErrorIfAutoCommitCannotBeRestored() throws Exception {
+		SQLException error = new SQLException();
+		when(this.st.executeBatch()).thenThrow(error);
+		doThrow(new SQLException()).when(this.conn).setAutoCommit(true);
+		this.writer.insert("parcels", geojson(1, "a"));
+
+		try {
+			this.writer.write(this.conn);
+			fail();
+		} catch (SQLException e) {
+			assertEquals(error, e);
+		}
+	}
+
+	@Test
+	public void rollbackOnErrors() throws Exception {
+		Error error = new Error("test");
+		when(this.st.executeBatch()).thenThrow(error);
+		this.writer.insert("parcels", geojson(1, "a"));
+
+		try {
+			this.writer.write(this.conn);
+			fail();
+		} catch (Error e) {
+			assertEquals(error, e);
+		}
+		verify(this.conn).rollback();
+		verify(this.conn, never()).commit();
+		verify(this.conn).setAutoCommit(true);
+	}
+
+	@Test
+	public void keepsTransactionIfRollbackFails() throws Exception {
+		SQLException error = new SQLException();
+		when(this.st.executeBatch()).thenThrow(error);
+		doThrow(new SQLException()).when(this.conn).rollback();
+		this.writer.insert("parcels", geojson(1, "a"));
+
+		try {
+			this.writer.write(this.conn);
+			fail();
+		} catch (SQLException e) {
+			assertEquals(error, e);
+		}
+		// Restoring the auto-commit mode would commit the written edits
+		verify(this.conn, never()).setAutoCommit(true);
+		verify(this.conn, never()).commit();
+	}
+
+	@Test
+	public void unknownLayer() throws Exception {
+		try {
+			this.writer.insert("unknown", geojson(1, "a"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("unknown"));
+		}
+	}
+
+	private JSONObject geojson(int id, String name) {
+		return GeojsonFixtures.feature(ID_COLUMN, id, name);
+	}
+}
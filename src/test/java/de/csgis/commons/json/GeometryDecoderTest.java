@@ -0,0 +1,90 @@
+package de.csgis.commons.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeometryDecoderTest {
+	private static final int SRID = 4326;
+
+	private GeometryDecoder decoder;
+	private WKTReader reader;
+
+	@Before
+	public void setup() {
+		this.decoder = new GeometryDecoder(SRID);
+		this.reader = new WKTReader();
+	}
+
+	@Test
+	public void decodesAllTypes() throws Exception {
+		check("{type:'Point',coordinates:[1,2.5]}", "POINT (1 2.5)");
+		check("{type:'MultiPoint',coordinates:[[1,2],[3,4]]}",
+				"MULTIPOINT ((1 2), (3 4))");
+		check("{type:'LineString',coordinates:[[1,2],[3,4]]}",
+				"LINESTRING (1 2, 3 4)");
+		check("{type:'MultiLineString',coordinates:[[[1,2],[3,4]],[[5,6],[7,8]]]}",
+				"MULTILINESTRING ((1 2, 3 4), (5 6, 7 8))");
+		check("{type:'Polygon',coordinates:[[[0,0],[10,0],[10,10],[0,0]],"
+				+ "[[1,1],[2,1],[2,2],[1,1]]]}",
+				"POLYGON ((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))");
+		check("{type:'MultiPolygon',coordinates:[[[[0,0],[1,0],[1,1],[0,0]]]]}",
+				"MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)))");
+		check("{type:'GeometryCollection',geometries:["
+				+ "{type:'Point',coordinates:[1,2]},"
+				+ "{type:'LineString',coordinates:[[1,2],[3,4]]}]}",
+				"GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (1 2, 3 4))");
+	}
+
+	@Test
+	public void packedCoordinates() throws Exception {
+		Geometry geom = decode("{type:'LineString',coordinates:[[1,2,3],[4,5]]}");
+		assertEquals(SRID, geom.getSRID());
+		CoordinateSequence sequence = ((LineString) geom)
+				.getCoordinateSequence();
+		assertTrue(sequence instanceof PackedCoordinateSequence);
+		assertEquals(3.0, geom.getCoordinates()[0].z, 0);
+		assertTrue(Double.isNaN(geom.getCoordinates()[1].z));
+	}
+
+	@Test
+	public void invalidGeometries() throws Exception {
+		String[] invalid = new String[]{"{}", "{type:'Point'}",
+				"{type:'Unknown',coordinates:[1,2]}",
+				"{type:'Point',coordinates:[1]}",
+				"{type:'Point',coordinates:['a','b']}",
+				"{type:'LineString',coordinates:[[1,2]]}",
+				"{type:'MultiLineString',coordinates:[[[0,0],[1,1]],[[1,2]]]}",
+				"{type:'Polygon',coordinates:[[[0,0],[1,0],[1,1]]]}",
+				"{type:'GeometryCollection',geometries:[1]}"};
+		for (String geojson : invalid) {
+			try {
+				decode(geojson);
+				fail(geojson);
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void check(String geojson, String wkt) throws Exception {
+		Geometry geom = decode(geojson);
+		assertTrue(geom.toText(), geom.equalsExact(this.reader.read(wkt)));
+	}
+
+	private Geometry decode(String geojson) throws IOException {
+		return this.decoder.decode(JSONObject.fromObject(geojson));
+	}
+}
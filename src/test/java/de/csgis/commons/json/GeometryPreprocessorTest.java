@@ -0,0 +1,93 @@
+package de.csgis.commons.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeometryPreprocessorTest {
+	private GeometryFactory gf;
+	private WKTReader reader;
+
+	@Before
+	public void setup() {
+		this.gf = new GeometryFactory();
+		this.reader = new WKTReader(this.gf);
+	}
+
+	@Test
+	public void removesRepeatedPoints() throws Exception {
+		Geometry geom = this.reader
+				.read("LINESTRING (0 0, 0 0, 1 1, 1 1, 1 1, 2 0)");
+		Geometry processed = new GeometryPreprocessor().process(geom);
+		assertEquals(3, processed.getNumPoints());
+		assertEquals(6, geom.getNumPoints());
+	}
+
+	@Test
+	public void keepsCollapsedComponents() throws Exception {
+		Geometry geom = this.reader.read("LINESTRING (0 0, 0 0)");
+		Geometry processed = new GeometryPreprocessor().process(geom);
+		assertEquals(2, processed.getNumPoints());
+	}
+
+	@Test
+	public void snapsCoordinates() throws Exception {
+		Geometry geom = this.gf.createPoint(new Coordinate(10.123456789012345,
+				20.456789012345678));
+		Geometry processed = new GeometryPreprocessor(1000, 0, false)
+				.process(geom);
+		assertEquals(new Coordinate(10.123, 20.457), processed.getCoordinate());
+	}
+
+	@Test
+	public void snappingRemovesRepeatedPoints() throws Exception {
+		Geometry geom = this.reader
+				.read("LINESTRING (0 0, 0.0001 0.0001, 1 1, 2 0)");
+		Geometry processed = new GeometryPreprocessor(100, 0, false)
+				.process(geom);
+		assertEquals(3, processed.getNumPoints());
+	}
+
+	@Test
+	public void simplifies() throws Exception {
+		Geometry geom = this.reader
+				.read("POLYGON ((0 0, 5 0.01, 10 0, 10 10, 5 9.99, 0 10, 0 0))");
+		Geometry dp = new GeometryPreprocessor(0, 0.1, false).process(geom);
+		Geometry tp = new GeometryPreprocessor(0, 0.1, true).process(geom);
+		assertEquals(5, dp.getNumPoints());
+		assertEquals(5, tp.getNumPoints());
+		assertTrue(dp.isValid());
+		assertTrue(tp.isValid());
+	}
+
+	@Test
+	public void keepsGeometriesCollapsedBySnapping() throws Exception {
+		GeometryPreprocessor preprocessor = new GeometryPreprocessor(1, 0,
+				false);
+		Geometry polygon = this.reader
+				.read("POLYGON ((0.1 0.1, 0.2 0.1, 0.2 0.2, 0.1 0.1))");
+		Geometry line = this.reader.read("LINESTRING (0.1 0.1, 0.2 0.2)");
+
+		assertEquals(polygon, preprocessor.process(polygon));
+		assertEquals(line, preprocessor.process(line));
+	}
+
+	@Test
+	public void keepsGeometriesCollapsedBySimplifying() throws Exception {
+		Geometry polygon = this.reader
+				.read("POLYGON ((0.1 0.1, 0.2 0.1, 0.2 0.2, 0.1 0.1))");
+
+		Geometry dp = new GeometryPreprocessor(0, 5, false).process(polygon);
+		Geometry tp = new GeometryPreprocessor(0, 5, true).process(polygon);
+		assertEquals("Polygon", dp.getGeometryType());
+		assertEquals(polygon, dp);
+		assertEquals(polygon, tp);
+	}
+}
@@ -0,0 +1,166 @@
+package de.csgis.commons.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingJSONParserTest {
+	private StreamingJSONParser parser;
+
+	@Before
+	public void setup() {
+		this.parser = new StreamingJSONParser();
+	}
+
+	@Test
+	public void sameResultAsJSONLib() {
+		String[] texts = new String[]{"{}",
+				"{\"a\":1,\"b\":12345678901,\"c\":1.5,\"d\":-2e3}",
+				"{\"a\":true,\"b\":false,\"c\":null,\"d\":\"null\"}",
+				"{\"a\":\"{\\\"b\\\":1}\",\"c\":\"[1]\",\"d\":\"\\u00e9\\n\"}",
+				"{\"a\":[[1,2],[3.25,-4]],\"b\":{\"c\":{\"d\":[{}]}}}",
+				"{a : 1, 'b' : { b1 : 'one', b2 : [1,2,], }}",
+				"{/* comment */ a : 1, // comment\n b : 2}",
+				"{a : 1, a : 2}",
+				"{a : TRUE, b : False, c : +1, d : .5, e : -.5, f : +1.5}",
+				"{a : 012, b : -012, c : 09, d : 0x1F, e : 0XfF, f : 00}",
+				"{a : 0xFFFFFFFF, b : 1b, c : -, d : 1 2, e : 1L}",
+				"{a : [TRUE, +1, 012, .5, 0x10]}",
+				"{a = 1, b => 2, c d : 3; e=>4;}",
+				"{TRUE : 1, 01 : 2, null : 3, 1.50 : 4, 0x10 : 5, ' q ' : 6}",
+				"{a : [1,,2], b : [,1], c : [1,,], d : [,], e : [ , ,]}"};
+		JSONLibParser jsonlib = new JSONLibParser();
+		for (String text : texts) {
+			JSONObject expected = jsonlib.parse(text);
+			JSONObject actual = this.parser.parse(text);
+			assertEquals(expected, actual);
+			assertEquals(expected.toString(), actual.toString());
+		}
+	}
+
+	@Test
+	public void keepsFunctionsAsStrings() {
+		String text = "{\"a\":\"function(){}\",\"b\":[\"function(x){}\"]}";
+		JSONObject obj = this.parser.parse(text);
+		// Quoted, same as json-lib
+		assertEquals("\"function(){}\"", obj.get("a"));
+		assertEquals(new JSONLibParser().parse(text).get("a"), obj.get("a"));
+		assertTrue(obj.getJSONArray("b").get(0) instanceof String);
+	}
+
+	@Test
+	public void invalidContent() {
+		String[] texts = new String[]{"", "[]", "{a:b}", "{a:1", "{'a:1}",
+				"{a:1} b", "{a 1}", "{a = > 1}", "{a:1,,b:2}", "{:1}",
+				"{a:[;]}"};
+		for (String text : texts) {
+			try {
+				this.parser.parse(text);
+				fail(text);
+			} catch (JSONException e) {
+			}
+		}
+	}
+
+	@Test
+	public void longStrings() throws Exception {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			value.append("abc\\\"");
+		}
+		JSONObject obj = this.parser.parse(new StringReader(
+				"{\"a\":\"" + value + "\"}"));
+		assertEquals(40000, obj.getString("a").length());
+		assertTrue(obj.getString("a").startsWith("abc\"abc\""));
+	}
+
+	@Test
+	public void handlerNumbers() throws Exception {
+		final List<Object> values = new ArrayList<Object>();
+		this.parser.parse(new StringReader("[10.123456789012345, -1.5e2, 1e400,"
+				+ " 12345678901, 123456789012345678901, 012, 0x1F, 09, 1b]"),
+				new JSONHandler() {
+					@Override
+					public void startObject() {
+					}
+
+					@Override
+					public void endObject() {
+					}
+
+					@Override
+					public void startArray() {
+					}
+
+					@Override
+					public void endArray() {
+					}
+
+					@Override
+					public void key(String key) {
+					}
+
+					@Override
+					public void value(Object value) {
+						values.add(value);
+					}
+				});
+
+		assertEquals(Arrays.<Object> asList(10.123456789012345, -150.0,
+				new BigDecimal("1e400"), 12345678901L, new BigInteger(
+						"123456789012345678901"), 10, 31, 9, "1b"), values);
+	}
+
+	@Test
+	public void handlerEvents() throws Exception {
+		final List<String> events = new ArrayList<String>();
+		this.parser.parse(new StringReader("[{\"a\":[1,\"x\",null]}]"),
+				new JSONHandler() {
+					@Override
+					public void startObject() {
+						events.add("{");
+					}
+
+					@Override
+					public void endObject() {
+						events.add("}");
+					}
+
+					@Override
+					public void startArray() {
+						events.add("[");
+					}
+
+					@Override
+					public void endArray() {
+						events.add("]");
+					}
+
+					@Override
+					public void key(String key) {
+						events.add("key:" + key);
+					}
+
+					@Override
+					public void value(Object value) {
+						events.add("value:" + value);
+					}
+				});
+
+		assertEquals("[[, {, key:a, [, value:1, value:x, value:null, ], }, ]]",
+				events.toString());
+	}
+}